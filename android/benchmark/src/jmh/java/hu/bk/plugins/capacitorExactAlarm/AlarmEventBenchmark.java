@@ -0,0 +1,46 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the alarmTriggered event, from the journal payload to the JSON
+ * string handed to the bridge.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AlarmEventBenchmark {
+
+    private String data;
+
+    @Setup
+    public void data() {
+        // About 1 KB of app data, a typical payload
+        JSObject payload = new JSObject();
+        for (int i = 0; i < 20; i++) {
+            payload.put("key" + i, "value of the benchmark entry number " + i);
+        }
+        data = payload.toString();
+    }
+
+    @Benchmark
+    public JSObject buildPayload() {
+        return AlarmEvent.buildPayload(42, "Wake up", "Time to get up", "content://media/internal/audio/media/21", 1_710_072_000_000L);
+    }
+
+    @Benchmark
+    public String buildAndSerialize() {
+        JSObject payload = AlarmEvent.buildPayload(42, "Wake up", "Time to get up", "content://media/internal/audio/media/21", 1_710_072_000_000L);
+        return new AlarmEvent(1, "alarmTriggered", payload, data).toEvent().toString();
+    }
+}
@@ -0,0 +1,125 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AlarmStorage writes and reads at growing alarm counts. Every write copies
+ * the index, so these show how the cost scales with the number of alarms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AlarmStorageBenchmark {
+
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    static JSObject alarm(int alarmId, long timestamp) {
+        JSObject alarm = new JSObject();
+        alarm.put("id", alarmId);
+        alarm.put("timestamp", timestamp);
+        alarm.put("title", "Alarm " + alarmId);
+        alarm.put("msg", "Time to wake up");
+        alarm.put("soundName", "content://media/internal/audio/media/21");
+        alarm.put("dismissText", "Dismiss");
+        alarm.put("missedText", "Missed alarm");
+        alarm.put("data", new JSObject().put("alarmId", alarmId).put("label", "benchmark"));
+        return alarm;
+    }
+
+    /**
+     * A storage holding alarmCount alarms.
+     */
+    @State(Scope.Thread)
+    public static class Alarms {
+
+        @Param({"10", "100", "1000", "10000"})
+        public int alarmCount;
+
+        AlarmStorage storage;
+        JSObject replacement;
+        int targetId;
+        long nextTimestamp;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            storage = new AlarmStorage(new SqliteAlarmStore());
+            List<JSObject> alarms = new ArrayList<>(alarmCount);
+            for (int id = 1; id <= alarmCount; id++) {
+                alarms.add(alarm(id, BASE_TIME + id * 60_000L));
+            }
+            storage.addAlarms(alarms);
+
+            // Somewhere in the middle, so neither end of an ordered index is favoured
+            targetId = alarmCount / 2 + 1;
+            replacement = alarm(targetId, BASE_TIME);
+            nextTimestamp = BASE_TIME;
+        }
+    }
+
+    /**
+     * The removed alarm is put back outside the measured region.
+     */
+    @State(Scope.Thread)
+    public static class Removal extends Alarms {
+
+        @Setup(Level.Invocation)
+        public void restore() {
+            if (!storage.hasAlarm(targetId)) {
+                storage.addAlarm(replacement);
+            }
+        }
+    }
+
+    /**
+     * A write before every call, so getAlarms has to rebuild its cached array.
+     */
+    @State(Scope.Thread)
+    public static class Invalidated extends Alarms {
+
+        @Setup(Level.Invocation)
+        public void write() {
+            storage.updateAlarmTimeStamp(targetId, ++nextTimestamp);
+        }
+    }
+
+    @Benchmark
+    public void addAlarm(Alarms alarms) {
+        // Replaces an existing alarm, so the size stays at alarmCount
+        alarms.storage.addAlarm(alarms.replacement);
+    }
+
+    @Benchmark
+    public void removeAlarm(Removal alarms) {
+        alarms.storage.removeAlarm(alarms.targetId);
+    }
+
+    @Benchmark
+    public void updateAlarmTimeStamp(Alarms alarms) {
+        alarms.storage.updateAlarmTimeStamp(alarms.targetId, ++alarms.nextTimestamp);
+    }
+
+    @Benchmark
+    public JSArray getAlarms(Alarms alarms) {
+        // Served from the array cached on the index after the first call
+        return alarms.storage.getAlarms();
+    }
+
+    @Benchmark
+    public JSArray getAlarmsAfterWrite(Invalidated alarms) {
+        return alarms.storage.getAlarms();
+    }
+}
@@ -0,0 +1,93 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Next fire time of calendar alarms, computed by the receiver after every
+ * ring and for every alarm on boot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecurrenceRuleBenchmark {
+
+    // 2024-03-10T12:00:00Z, a Sunday
+    private static final long NOW = 1_710_072_000_000L;
+
+    private RecurrenceRule daily;
+    private RecurrenceRule weekly;
+    private RecurrenceRule day31;
+    private RecurrenceRule lastWorkday;
+    private JSObject weeklyCalendar;
+
+    private static JSObject calendar(int hour, int minute) {
+        JSObject calendar = new JSObject();
+        calendar.put("timeZone", "Europe/Budapest");
+        calendar.put("hour", hour);
+        calendar.put("minute", minute);
+        return calendar;
+    }
+
+    @Setup
+    public void parse() {
+        daily = RecurrenceRule.fromCalendar(calendar(7, 30));
+
+        weeklyCalendar = calendar(9, 0);
+        // Monday
+        weeklyCalendar.put("weekday", 2);
+        weekly = RecurrenceRule.fromCalendar(weeklyCalendar);
+
+        JSObject monthEnd = calendar(8, 0);
+        monthEnd.put("day", 31);
+        day31 = RecurrenceRule.fromCalendar(monthEnd);
+
+        JSObject workdays = calendar(17, 0);
+        workdays.put("freq", "monthly");
+        workdays.put("byWeekday", new JSArray().put(2).put(3).put(4).put(5).put(6));
+        workdays.put("bySetPos", new JSArray().put(-1));
+        lastWorkday = RecurrenceRule.fromCalendar(workdays);
+    }
+
+    @Benchmark
+    public long legacyDaily() {
+        return daily.next(NOW);
+    }
+
+    @Benchmark
+    public long legacyWeekly() {
+        return weekly.next(NOW);
+    }
+
+    @Benchmark
+    public long parseAndNextWeekly() {
+        // What the receiver does, it parses the stored calendar on every ring
+        return RecurrenceRule.fromCalendar(weeklyCalendar).next(NOW);
+    }
+
+    @Benchmark
+    public long day31SkippingShortMonths() {
+        // From the end of January, February has to be scanned and skipped
+        return day31.next(NOW - 40L * 24 * 60 * 60 * 1000);
+    }
+
+    @Benchmark
+    public long lastWorkdayOfMonth() {
+        return lastWorkday.next(NOW);
+    }
+
+    @Benchmark
+    public long[] preview100() {
+        return lastWorkday.preview(NOW, 100);
+    }
+}
@@ -0,0 +1,8 @@
+package android.content;
+
+/**
+ * Stand-in for the Android Context, only referenced by the signatures of the
+ * benchmarked classes.
+ */
+public abstract class Context {
+}
@@ -0,0 +1,35 @@
+package com.getcapacitor;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.Collection;
+
+/**
+ * Stand-in for Capacitor's JSArray.
+ */
+public class JSArray extends JSONArray {
+
+    public JSArray() {
+        super();
+    }
+
+    public JSArray(String json) throws JSONException {
+        super(json);
+    }
+
+    public JSArray(Collection<?> copyFrom) {
+        super(copyFrom);
+    }
+
+    public JSArray(Object array) throws JSONException {
+        super(array);
+    }
+
+    public static JSArray from(Object array) throws JSONException {
+        if (array instanceof Object[]) {
+            return new JSArray(array);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,149 @@
+package com.getcapacitor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stand-in for Capacitor's JSObject with the same behaviour for the methods
+ * the plugin uses: lenient getters returning null and puts that never throw.
+ */
+public class JSObject extends JSONObject {
+
+    public JSObject() {
+        super();
+    }
+
+    public JSObject(String json) throws JSONException {
+        super(json);
+    }
+
+    public JSObject(JSONObject obj, String[] names) throws JSONException {
+        super(obj, names);
+    }
+
+    public static JSObject fromJSONObject(JSONObject obj) throws JSONException {
+        Iterator<String> keysIter = obj.keys();
+        List<String> keys = new ArrayList<>();
+        while (keysIter.hasNext()) {
+            keys.add(keysIter.next());
+        }
+        return new JSObject(obj, keys.toArray(new String[0]));
+    }
+
+    @Override
+    public String getString(String key) {
+        return getString(key, null);
+    }
+
+    public String getString(String key, String defaultValue) {
+        // Like Android's JSONObject, any non-null value is coerced to a string
+        Object value = opt(key);
+        if (value == null || value == NULL) {
+            return defaultValue;
+        }
+        return value.toString();
+    }
+
+    public Integer getInteger(String key) {
+        return getInteger(key, null);
+    }
+
+    public Integer getInteger(String key, Integer defaultValue) {
+        try {
+            return super.getInt(key);
+        } catch (JSONException e) {
+            return defaultValue;
+        }
+    }
+
+    public Boolean getBoolean(String key, Boolean defaultValue) {
+        try {
+            return super.getBoolean(key);
+        } catch (JSONException e) {
+            return defaultValue;
+        }
+    }
+
+    public JSObject getJSObject(String name) {
+        try {
+            return getJSObject(name, null);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public JSObject getJSObject(String name, JSObject defaultValue) throws JSONException {
+        try {
+            Object obj = get(name);
+            if (obj instanceof JSONObject) {
+                return fromJSONObject((JSONObject) obj);
+            }
+        } catch (JSONException ex) {
+            // Missing
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public JSObject put(String key, boolean value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for valid keys
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, int value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for valid keys
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, long value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for valid keys
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, double value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for finite values
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, Object value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for valid keys
+        }
+        return this;
+    }
+
+    public JSObject put(String key, String value) {
+        try {
+            super.put(key, value);
+        } catch (JSONException ex) {
+            // Never thrown for valid keys
+        }
+        return this;
+    }
+}
@@ -0,0 +1,86 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.Context;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory stand-in for the SQLite store, so the benchmarks measure
+ * AlarmStorage itself rather than disk I/O.
+ */
+class SqliteAlarmStore implements AlarmStore {
+
+    private final Map<Integer, JSObject> rows = new LinkedHashMap<>();
+    private final Map<Integer, String> payloads = new HashMap<>();
+    private int idCeiling;
+
+    SqliteAlarmStore() {
+    }
+
+    SqliteAlarmStore(Context context) {
+        this();
+    }
+
+    @Override
+    public synchronized List<JSObject> loadAll() {
+        return new ArrayList<>(rows.values());
+    }
+
+    @Override
+    public synchronized void write(Collection<JSObject> upserts, Map<Integer, String> payloadChanges, Collection<Integer> removals) {
+        for (Integer alarmId : removals) {
+            rows.remove(alarmId);
+            payloads.remove(alarmId);
+        }
+        for (JSObject alarm : upserts) {
+            rows.put(alarm.optInt("id"), alarm);
+        }
+        for (Map.Entry<Integer, String> entry : payloadChanges.entrySet()) {
+            if (entry.getValue() == null) {
+                payloads.remove(entry.getKey());
+            } else {
+                payloads.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String loadPayload(int alarmId) {
+        return payloads.get(alarmId);
+    }
+
+    @Override
+    public synchronized Map<Integer, String> loadPayloads(Collection<Integer> alarmIds) {
+        Map<Integer, String> result = new HashMap<>();
+        for (Integer alarmId : alarmIds) {
+            String payload = payloads.get(alarmId);
+            if (payload != null) {
+                result.put(alarmId, payload);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void clear() {
+        rows.clear();
+        payloads.clear();
+    }
+
+    @Override
+    public synchronized int loadIdCeiling() {
+        return idCeiling;
+    }
+
+    @Override
+    public synchronized void saveIdCeiling(int ceiling) {
+        idCeiling = ceiling;
+    }
+}
@@ -0,0 +1,138 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.app.NotificationManager;
+
+import androidx.core.app.NotificationCompat;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+/**
+ * Notification channel of an alarm, built from its "channel" object:
+ *
+ * | Field      | Description |
+ * |------------|-------------|
+ * | id         | Channel id, alarms with the same id share the channel. |
+ * | name       | Name shown in the system settings, the id when missing. |
+ * | importance | "min", "low", "default", "high" or "max", "high" by default. |
+ * | vibrate    | Whether notifications of the channel vibrate, true by default. |
+ *
+ * Android fixes the importance and vibration of a channel when it is first
+ * created, later alarms with the same id can only rename it. Before Android 8
+ * the importance is applied as the notification priority.
+ */
+public final class AlarmChannel {
+
+    private static final String[] IMPORTANCE_NAMES = {"min", "low", "default", "high", "max"};
+    private static final int[] IMPORTANCES = {
+            NotificationManager.IMPORTANCE_MIN,
+            NotificationManager.IMPORTANCE_LOW,
+            NotificationManager.IMPORTANCE_DEFAULT,
+            NotificationManager.IMPORTANCE_HIGH,
+            NotificationManager.IMPORTANCE_MAX
+    };
+    private static final int[] PRIORITIES = {
+            NotificationCompat.PRIORITY_MIN,
+            NotificationCompat.PRIORITY_LOW,
+            NotificationCompat.PRIORITY_DEFAULT,
+            NotificationCompat.PRIORITY_HIGH,
+            NotificationCompat.PRIORITY_MAX
+    };
+
+    // Declared after the tables above, its constructor reads them
+    static final AlarmChannel DEFAULT = new AlarmChannel("alarm_channel", "Alarm Notifications", "high", true);
+
+    final String id;
+    final String name;
+    final String importanceName;
+    final boolean vibrate;
+    private final int level;
+
+    private AlarmChannel(String id, String name, String importanceName, boolean vibrate) {
+        this.id = id;
+        this.name = name;
+        this.importanceName = importanceName;
+        this.vibrate = vibrate;
+        this.level = levelOf(importanceName);
+    }
+
+    /**
+     * Channel of the setAlarm / updateAlarm options.
+     * Throws IllegalArgumentException when the object is unusable.
+     */
+    public static AlarmChannel fromOptions(JSONObject channel) {
+        String id = channel.optString("id", "");
+        if (id.trim().isEmpty()) {
+            throw new IllegalArgumentException("channel.id is required");
+        }
+        String name = channel.optString("name", id);
+        String importance = channel.optString("importance", DEFAULT.importanceName);
+        if (levelOf(importance) < 0) {
+            throw new IllegalArgumentException("Invalid channel importance "+importance);
+        }
+        return new AlarmChannel(id, name, importance, channel.optBoolean("vibrate", true));
+    }
+
+    /**
+     * Channel stored with an alarm, {@link #DEFAULT} itself for alarms stored
+     * without one or with one this version can not read. A stored channel is
+     * never DEFAULT otherwise, so callers can tell and log it.
+     */
+    public static AlarmChannel fromStored(JSONObject channel) {
+        if (channel == null) {
+            return DEFAULT;
+        }
+        try {
+            return fromOptions(channel);
+        } catch (IllegalArgumentException e) {
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Same as {@link #fromStored(JSONObject)} for a channel passed on as JSON text.
+     */
+    public static AlarmChannel fromStored(String channelJson) {
+        if (channelJson == null) {
+            return DEFAULT;
+        }
+        try {
+            return fromStored(new JSONObject(channelJson));
+        } catch (Exception e) {
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * NotificationManager importance of the channel.
+     */
+    public int getImportance() {
+        return IMPORTANCES[level];
+    }
+
+    /**
+     * NotificationCompat priority, what the importance means before Android 8.
+     */
+    public int getPriority() {
+        return PRIORITIES[level];
+    }
+
+    public JSObject toJSObject() {
+        JSObject channel = new JSObject();
+        channel.put("id", id);
+        channel.put("name", name);
+        channel.put("importance", importanceName);
+        channel.put("vibrate", vibrate);
+        return channel;
+    }
+
+    private static int levelOf(String importance) {
+        for (int i = 0; i < IMPORTANCE_NAMES.length; i++) {
+            if (IMPORTANCE_NAMES[i].equals(importance)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
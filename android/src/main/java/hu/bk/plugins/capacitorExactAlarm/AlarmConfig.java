@@ -0,0 +1,110 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * Plugin wide settings set through capacitorExactAlarmPlugin.configure().
+ * They are persisted so receivers running without the bridge see the same values.
+ */
+public class AlarmConfig {
+
+    private static final String PREFS_NAME = "AlarmConfig";
+
+    private static final String KEY_MAX_ARMED_ALARMS = "maxArmedAlarms";
+    private static final String KEY_COALESCE_WINDOW = "coalesceWindowMs";
+    private static final String KEY_MAX_DATA_BYTES = "maxDataBytes";
+    private static final String KEY_SNOOZE_MS = "snoozeMs";
+    private static final String KEY_LATENCY_EVENTS = "latencyEvents";
+    private static final String KEY_OPEN_APP_ON_TAP = "openAppOnTap";
+
+    private static final int DEFAULT_MAX_DATA_BYTES = 64 * 1024;
+    private static final long DEFAULT_SNOOZE_MS = 5 * 60 * 1000L;
+
+    private final SharedPreferences prefs;
+
+    public AlarmConfig(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * How many of the earliest alarms are registered with AlarmManager at once.
+     * 0 registers every stored alarm.
+     */
+    public int getMaxArmedAlarms() {
+        return prefs.getInt(KEY_MAX_ARMED_ALARMS, 0);
+    }
+
+    /**
+     * Alarms due within this many milliseconds of a firing alarm share its
+     * wakeup and ringing session. 0 disables coalescing.
+     */
+    public long getCoalesceWindowMs() {
+        return prefs.getLong(KEY_COALESCE_WINDOW, 0L);
+    }
+
+    /**
+     * Largest accepted "data" payload of an alarm, in UTF-8 bytes of its JSON text.
+     */
+    public int getMaxDataBytes() {
+        return prefs.getInt(KEY_MAX_DATA_BYTES, DEFAULT_MAX_DATA_BYTES);
+    }
+
+    /**
+     * How far the snooze action of a ringing alarm moves it. 0 hides the action.
+     */
+    public long getSnoozeMs() {
+        return prefs.getLong(KEY_SNOOZE_MS, DEFAULT_SNOOZE_MS);
+    }
+
+    /**
+     * Whether the latency of every fire is sent as an alarmLatency event.
+     */
+    public boolean getLatencyEvents() {
+        return prefs.getBoolean(KEY_LATENCY_EVENTS, false);
+    }
+
+    /**
+     * Whether tapping an alarm notification opens the app. When off the tap
+     * is only recorded and reaches the web layer on the next bridge load.
+     */
+    public boolean getOpenAppOnTap() {
+        return prefs.getBoolean(KEY_OPEN_APP_ON_TAP, true);
+    }
+
+    public void update(JSObject options) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (options.has(KEY_MAX_ARMED_ALARMS)) {
+            editor.putInt(KEY_MAX_ARMED_ALARMS, Math.max(0, options.optInt(KEY_MAX_ARMED_ALARMS)));
+        }
+        if (options.has(KEY_COALESCE_WINDOW)) {
+            editor.putLong(KEY_COALESCE_WINDOW, Math.max(0L, options.optLong(KEY_COALESCE_WINDOW)));
+        }
+        if (options.has(KEY_MAX_DATA_BYTES)) {
+            editor.putInt(KEY_MAX_DATA_BYTES, Math.max(0, options.optInt(KEY_MAX_DATA_BYTES)));
+        }
+        if (options.has(KEY_SNOOZE_MS)) {
+            editor.putLong(KEY_SNOOZE_MS, Math.max(0L, options.optLong(KEY_SNOOZE_MS)));
+        }
+        if (options.has(KEY_LATENCY_EVENTS)) {
+            editor.putBoolean(KEY_LATENCY_EVENTS, options.optBoolean(KEY_LATENCY_EVENTS));
+        }
+        if (options.has(KEY_OPEN_APP_ON_TAP)) {
+            editor.putBoolean(KEY_OPEN_APP_ON_TAP, options.optBoolean(KEY_OPEN_APP_ON_TAP, true));
+        }
+        editor.commit();
+    }
+
+    public JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put(KEY_MAX_ARMED_ALARMS, getMaxArmedAlarms());
+        result.put(KEY_COALESCE_WINDOW, getCoalesceWindowMs());
+        result.put(KEY_MAX_DATA_BYTES, getMaxDataBytes());
+        result.put(KEY_SNOOZE_MS, getSnoozeMs());
+        result.put(KEY_LATENCY_EVENTS, getLatencyEvents());
+        result.put(KEY_OPEN_APP_ON_TAP, getOpenAppOnTap());
+        return result;
+    }
+}
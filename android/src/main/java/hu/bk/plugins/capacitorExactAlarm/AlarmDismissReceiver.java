@@ -14,8 +14,14 @@ public class AlarmDismissReceiver extends BroadcastReceiver {
         // Stop AlarmService
         Intent stopIntent = new Intent(context, hu.bk.plugins.capacitorExactAlarm.AlarmService.class);
         stopIntent.setAction("STOP_ALARM");
+        stopIntent.putExtra("alarmId", intent.getIntExtra("alarmId", -1));
         context.startService(stopIntent);
 
+        if (!new AlarmConfig(context).getOpenAppOnTap()) {
+            // The app asked not to be started from its notifications
+            return;
+        }
+
         // Open app
         Intent openIntent = context.getPackageManager()
                 .getLaunchIntentForPackage(context.getPackageName());
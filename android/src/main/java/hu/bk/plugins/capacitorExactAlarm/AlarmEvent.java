@@ -0,0 +1,67 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * An event recorded by the AlarmEventJournal, on its way to the web layer.
+ */
+public final class AlarmEvent {
+
+    private static final String TAG = "AlarmEvent";
+
+    public final long seq;
+    public final String type;
+    public final JSObject payload;
+    // Raw JSON, parsed only when the event is delivered
+    public final String data;
+
+    AlarmEvent(long seq, String type, JSObject payload, String data) {
+        this.seq = seq;
+        this.type = type;
+        this.payload = payload;
+        this.data = data;
+    }
+
+    /**
+     * The event as sent to JS, with the alarm data parsed into an object.
+     */
+    public JSObject toEvent() {
+        JSObject event = new JSObject();
+        Iterator<String> keys = payload.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            event.put(key, payload.opt(key));
+        }
+
+        if (data == null || data.length() == 0) {
+            event.put("data", new JSONObject());
+        } else {
+            try {
+                event.put("data", new JSONObject(data));
+            } catch (Exception e) {
+                Log.e(TAG, "invalid JSON");
+                event.put("data", new JSONObject());
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Event fields shared by every alarm event, the data is added on delivery.
+     */
+    public static JSObject buildPayload(int alarmId, String title, String msg, String soundName, long timestamp) {
+        JSObject payload = new JSObject();
+        payload.put("alarmId", alarmId);
+        payload.put("title", title);
+        payload.put("msg", msg);
+        payload.put("soundName", soundName);
+        payload.put("timestamp", timestamp);
+        return payload;
+    }
+}
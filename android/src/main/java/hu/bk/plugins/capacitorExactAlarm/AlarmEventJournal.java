@@ -0,0 +1,307 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent journal of the events sent to the web layer (alarmTriggered,
+ * alarmNotificationTapped, alarmDismissed).
+ *
+ * Every event is written here before it is delivered, so events raised while
+ * the app is dead or the bridge is still loading are replayed in order on the
+ * next plugin load. An event is identified by its type, alarm id and fire time,
+ * recording the same event twice is a no-op. The journal keeps the latest
+ * {@link #CAPACITY} events, delivered ones are kept only to catch duplicates.
+ *
+ * All journal work runs on the {@link AlarmExecutor} thread, which also keeps
+ * live delivery and replay from overlapping.
+ */
+public class AlarmEventJournal extends SQLiteOpenHelper {
+
+    private static final String TAG = "AlarmEventJournal";
+
+    public static final String EVENT_TRIGGERED = "alarmTriggered";
+    public static final String EVENT_TAPPED = "alarmNotificationTapped";
+    public static final String EVENT_DISMISSED = "alarmDismissed";
+
+    private static final String DATABASE_NAME = "capacitor_exact_alarm_events.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_EVENTS = "events";
+    private static final String COLUMN_SEQ = "seq";
+    private static final String COLUMN_TYPE = "type";
+    private static final String COLUMN_ALARM_ID = "alarm_id";
+    private static final String COLUMN_FIRE_TIME = "fire_time";
+    private static final String COLUMN_PAYLOAD = "payload";
+    // Raw alarm data, copied at record time because the alarm may be gone by delivery
+    private static final String COLUMN_DATA = "data";
+    private static final String COLUMN_DELIVERED = "delivered";
+
+    static final int CAPACITY = 500;
+    // Events handed to the bridge per replay step
+    static final int REPLAY_BATCH_SIZE = 50;
+
+    private static volatile AlarmEventJournal instance;
+
+    /**
+     * Receives events while a bridge is attached. Registered by the plugin on
+     * load, so the native alarm path only sees this interface and never loads
+     * plugin or bridge classes.
+     */
+    public interface Listener {
+        /**
+         * A journaled event, marked delivered once this returns.
+         */
+        void onEvent(AlarmEvent event);
+
+        /**
+         * An event that is not journaled, dropped while no bridge is attached.
+         */
+        void onTransientEvent(String type, JSObject payload);
+    }
+
+    private static volatile Listener listener;
+
+    private AlarmEventJournal(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static AlarmEventJournal getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AlarmEventJournal.class) {
+                if (instance == null) {
+                    instance = new AlarmEventJournal(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " ("
+                + COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_TYPE + " TEXT NOT NULL, "
+                + COLUMN_ALARM_ID + " INTEGER NOT NULL, "
+                + COLUMN_FIRE_TIME + " INTEGER NOT NULL, "
+                + COLUMN_PAYLOAD + " TEXT NOT NULL, "
+                + COLUMN_DATA + " TEXT, "
+                + COLUMN_DELIVERED + " INTEGER NOT NULL DEFAULT 0, "
+                + "UNIQUE (" + COLUMN_TYPE + ", " + COLUMN_ALARM_ID + ", " + COLUMN_FIRE_TIME + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_EVENTS + " ADD COLUMN " + COLUMN_DATA + " TEXT");
+        }
+    }
+
+    /**
+     * Records an event and delivers it right away when a bridge is attached,
+     * otherwise it waits for the next {@link #attach(Context, Listener)}.
+     * The alarm data is looked up on the worker thread, it never travels in the intent.
+     */
+    public static void publish(Context context, String type, int alarmId, long fireTime, JSObject payload) {
+        Context appContext = context.getApplicationContext();
+        AlarmExecutor.execute(() -> {
+            AlarmEventJournal journal = getInstance(appContext);
+            // A one-shot alarm is removed once it rang, its trigger event still has the data
+            String data = AlarmStorage.getInstance(appContext).getPayload(alarmId);
+            if (data == null) {
+                data = journal.findData(alarmId);
+            }
+            journal.recordAndDeliver(type, alarmId, fireTime, payload, data);
+        });
+    }
+
+    /**
+     * Records an event for the alarm described by the extras of an alarm or
+     * notification intent.
+     */
+    public static void publish(Context context, String type, Intent intent) {
+        publish(context, type, intent.getIntExtra("alarmId", -1), intent.getLongExtra("timestamp", 0), buildPayload(intent));
+    }
+
+    /**
+     * Records an event for a stored alarm record with data the caller already
+     * read. For work that runs on the AlarmExecutor thread and removes the alarm right after.
+     * The event reports how late the alarm was delivered compared to its fire time.
+     */
+    static void publishNow(Context context, String type, JSObject alarm, String data, long firedAt) {
+        int alarmId = alarm.optInt("id");
+        long timestamp = alarm.optLong("timestamp");
+        JSObject payload = AlarmEvent.buildPayload(alarmId, alarm.getString("title"), alarm.getString("msg"),
+                alarm.getString("soundName"), timestamp);
+        payload.put("deliveryLagMs", firedAt - timestamp);
+        getInstance(context.getApplicationContext()).recordAndDeliver(type, alarmId, timestamp, payload, data);
+    }
+
+    private void recordAndDeliver(String type, int alarmId, long fireTime, JSObject payload, String data) {
+        if (record(type, alarmId, fireTime, payload, data) == null) {
+            return;
+        }
+        Listener current = listener;
+        if (current != null) {
+            // Older events still waiting for the replay go out first
+            drain(current);
+        }
+    }
+
+    /**
+     * Attaches the listener of a loaded bridge and hands it every undelivered
+     * event in recording order.
+     */
+    public static void attach(Context context, Listener target) {
+        listener = target;
+        Context appContext = context.getApplicationContext();
+        AlarmExecutor.execute(() -> {
+            int replayed = getInstance(appContext).drain(target);
+            if (replayed > 0) {
+                Log.d(TAG, "Replayed " + replayed + " events");
+            }
+        });
+    }
+
+    /**
+     * Detaches a listener, later events wait in the journal for the next bridge.
+     */
+    public static void detach(Listener target) {
+        if (listener == target) {
+            listener = null;
+        }
+    }
+
+    public static boolean isAttached() {
+        return listener != null;
+    }
+
+    /**
+     * Sends an event that is not worth journaling, e.g. metrics, to the
+     * attached bridge. Dropped when there is none.
+     */
+    static void deliverTransient(String type, JSObject payload) {
+        Listener current = listener;
+        if (current != null) {
+            current.onTransientEvent(type, payload);
+        }
+    }
+
+    // Delivers pending events a batch at a time, each batch is marked delivered in one update
+    private int drain(Listener target) {
+        int delivered = 0;
+        List<AlarmEvent> batch = pending(REPLAY_BATCH_SIZE);
+        while (!batch.isEmpty()) {
+            for (AlarmEvent event : batch) {
+                target.onEvent(event);
+            }
+            markDelivered(batch.get(0).seq, batch.get(batch.size() - 1).seq);
+            delivered += batch.size();
+            batch = pending(REPLAY_BATCH_SIZE);
+        }
+        return delivered;
+    }
+
+    /**
+     * Stores an event, returns null when the same event was already recorded.
+     */
+    AlarmEvent record(String type, int alarmId, long fireTime, JSObject payload, String data) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TYPE, type);
+        values.put(COLUMN_ALARM_ID, alarmId);
+        values.put(COLUMN_FIRE_TIME, fireTime);
+        values.put(COLUMN_PAYLOAD, payload.toString());
+        values.put(COLUMN_DATA, data);
+
+        long seq = db.insertWithOnConflict(TABLE_EVENTS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        if (seq == -1) {
+            Log.d(TAG, "Skipped duplicate " + type + " for alarm " + alarmId + " at " + fireTime);
+            return null;
+        }
+
+        // Keep the journal bounded, the oldest events go first
+        int dropped = db.delete(TABLE_EVENTS, COLUMN_SEQ + " <= ? AND " + COLUMN_DELIVERED + " = 0",
+                new String[]{String.valueOf(seq - CAPACITY)});
+        if (dropped > 0) {
+            Log.w(TAG, "Dropped " + dropped + " undelivered events, journal is full");
+        }
+        db.delete(TABLE_EVENTS, COLUMN_SEQ + " <= ?", new String[]{String.valueOf(seq - CAPACITY)});
+
+        return new AlarmEvent(seq, type, payload, data);
+    }
+
+    List<AlarmEvent> pending(int limit) {
+        List<AlarmEvent> entries = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(
+                TABLE_EVENTS,
+                new String[]{COLUMN_SEQ, COLUMN_TYPE, COLUMN_PAYLOAD, COLUMN_DATA},
+                COLUMN_DELIVERED + " = 0",
+                null,
+                null,
+                null,
+                COLUMN_SEQ + " ASC",
+                String.valueOf(limit)
+        );
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    entries.add(new AlarmEvent(cursor.getLong(0), cursor.getString(1), new JSObject(cursor.getString(2)), cursor.getString(3)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    // Data of the latest recorded event of an alarm, null when none is left
+    String findData(int alarmId) {
+        Cursor cursor = getReadableDatabase().query(
+                TABLE_EVENTS,
+                new String[]{COLUMN_DATA},
+                COLUMN_ALARM_ID + " = ? AND " + COLUMN_DATA + " IS NOT NULL",
+                new String[]{String.valueOf(alarmId)},
+                null,
+                null,
+                COLUMN_SEQ + " DESC",
+                "1"
+        );
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void markDelivered(long fromSeq, long toSeq) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DELIVERED, 1);
+        getWritableDatabase().update(TABLE_EVENTS, values, COLUMN_SEQ + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(fromSeq), String.valueOf(toSeq)});
+    }
+
+    private static JSObject buildPayload(Intent intent) {
+        return AlarmEvent.buildPayload(
+                intent.getIntExtra("alarmId", -1),
+                intent.getStringExtra("title"),
+                intent.getStringExtra("msg"),
+                intent.getStringExtra("soundName"),
+                intent.getLongExtra("timestamp", 0)
+        );
+    }
+}
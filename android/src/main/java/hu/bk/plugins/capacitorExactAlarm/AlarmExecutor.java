@@ -0,0 +1,80 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.BroadcastReceiver;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single background thread for storage and AlarmManager bookkeeping.
+ * One thread keeps the work ordered, so a reschedule never races a restore.
+ * Reading a fired alarm on its way to the speaker has a thread of its own,
+ * so it never waits behind that queue.
+ */
+public class AlarmExecutor {
+
+    private static final String TAG = "AlarmExecutor";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "capacitor-alarm-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService FIRE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+            runnable.run();
+        }, "capacitor-alarm-fire");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private AlarmExecutor() {
+    }
+
+    public static void execute(Runnable work) {
+        EXECUTOR.execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                // A failed store write must not take the process down with it
+                Log.e(TAG, "Background alarm work failed", e);
+            }
+        });
+    }
+
+    /**
+     * Runs work on the path from a fire to its sound on the high-priority
+     * thread. Bookkeeping that must follow it is queued with execute() from there.
+     */
+    public static void executeFire(Runnable work) {
+        FIRE_EXECUTOR.execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Alarm fire work failed", e);
+            }
+        });
+    }
+
+    /**
+     * Runs receiver work on the background thread and finishes the
+     * goAsync() result once it is done, even if the work throws.
+     */
+    public static void executeAsync(BroadcastReceiver.PendingResult pendingResult, Runnable work) {
+        EXECUTOR.execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Background alarm work failed", e);
+            } finally {
+                if (pendingResult != null) {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+}
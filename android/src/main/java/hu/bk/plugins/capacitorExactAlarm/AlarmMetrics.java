@@ -0,0 +1,263 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Delivery latency of fired alarms.
+ *
+ * Every fire gets a trace: its scheduled time, the AlarmReceiver.onReceive
+ * entry, the AlarmService.onStartCommand entry, the moment the sound started
+ * and the moment its notification was posted. The latest
+ * {@link #TRACE_CAPACITY} traces are kept in a lock-free ring buffer, each
+ * stage is also added to a percentile histogram as it happens. The receiver
+ * and the service only ever do atomic writes here, everything that touches
+ * the disk or the bridge runs on the {@link AlarmExecutor} thread.
+ *
+ * The histograms are persisted, so fires handled while the app was dead
+ * still count. The traces live as long as the process.
+ */
+public final class AlarmMetrics {
+
+    public static final String EVENT_LATENCY = "alarmLatency";
+
+    static final int STAGE_SERVICE_STARTED = 0;
+    static final int STAGE_AUDIBLE = 1;
+    static final int STAGE_NOTIFIED = 2;
+    private static final int STAGE_COUNT = 3;
+
+    static final int TRACE_CAPACITY = 128;
+
+    private static final String PREFS_NAME = "AlarmMetrics";
+
+    // Receive time minus scheduled time, the lateness caused by Doze and AlarmManager
+    private static final LatencyHistogram DELIVERY = new LatencyHistogram();
+    // Receive to onStartCommand, includes a cold start of the process
+    private static final LatencyHistogram SERVICE_START = new LatencyHistogram();
+    // Receive to MediaPlayer/SoundPool start
+    private static final LatencyHistogram AUDIBLE = new LatencyHistogram();
+    // Receive to the notification being posted
+    private static final LatencyHistogram NOTIFICATION = new LatencyHistogram();
+    // Scheduled time to sound, what the user experiences
+    private static final LatencyHistogram SCHEDULED_TO_AUDIBLE = new LatencyHistogram();
+
+    // Names in getAlarmMetrics() and in the preferences
+    private static final String[] METRICS = {
+            "delivery", "serviceStart", "audible", "notification", "scheduledToAudible"
+    };
+    private static final LatencyHistogram[] HISTOGRAMS = {
+            DELIVERY, SERVICE_START, AUDIBLE, NOTIFICATION, SCHEDULED_TO_AUDIBLE
+    };
+
+    private static final AtomicReferenceArray<Trace> TRACES = new AtomicReferenceArray<>(TRACE_CAPACITY);
+    private static final AtomicLong NEXT_SEQ = new AtomicLong();
+
+    private static final AtomicBoolean LOADED = new AtomicBoolean();
+    private static final AtomicBoolean SAVE_PENDING = new AtomicBoolean();
+
+    private AlarmMetrics() {
+    }
+
+    /**
+     * One fire of an alarm. Stage times are elapsedRealtime() values, written
+     * once by whichever thread reaches the stage first.
+     */
+    static final class Trace {
+        final long seq;
+        final int alarmId;
+        final long scheduledAt;
+        final long receivedAt;
+        final long receivedElapsed;
+        final AtomicLongArray stages = new AtomicLongArray(STAGE_COUNT);
+        final AtomicBoolean reported = new AtomicBoolean();
+
+        Trace(long seq, int alarmId, long scheduledAt, long receivedAt, long receivedElapsed) {
+            this.seq = seq;
+            this.alarmId = alarmId;
+            this.scheduledAt = scheduledAt;
+            this.receivedAt = receivedAt;
+            this.receivedElapsed = receivedElapsed;
+        }
+
+        long deliveryLag() {
+            return scheduledAt > 0 ? Math.max(0, receivedAt - scheduledAt) : -1;
+        }
+
+        // Milliseconds from receive to the stage, -1 when it was not reached
+        long sinceReceived(int stage) {
+            long at = stages.get(stage);
+            return at > 0 ? at - receivedElapsed : -1;
+        }
+
+        boolean isComplete() {
+            return stages.get(STAGE_AUDIBLE) > 0 && stages.get(STAGE_NOTIFIED) > 0;
+        }
+
+        JSObject toJSObject() {
+            JSObject result = new JSObject();
+            result.put("alarmId", alarmId);
+            result.put("scheduledAt", scheduledAt);
+            result.put("receivedAt", receivedAt);
+            putIfReached(result, "deliveryLagMs", deliveryLag());
+            putIfReached(result, "serviceStartMs", sinceReceived(STAGE_SERVICE_STARTED));
+            putIfReached(result, "audibleMs", sinceReceived(STAGE_AUDIBLE));
+            putIfReached(result, "notificationMs", sinceReceived(STAGE_NOTIFIED));
+            return result;
+        }
+
+        private static void putIfReached(JSObject result, String key, long value) {
+            if (value >= 0) {
+                result.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Starts the trace of a fire, called once its record is read, with the
+     * times taken on entry of AlarmReceiver.onReceive.
+     * Returns the sequence number that identifies the trace in later stages.
+     */
+    public static long begin(Context context, int alarmId, long scheduledAt, long receivedAt, long receivedElapsed) {
+        long seq = NEXT_SEQ.getAndIncrement();
+        Trace trace = new Trace(seq, alarmId, scheduledAt, receivedAt, receivedElapsed);
+        TRACES.set(slotOf(seq), trace);
+
+        long deliveryLag = trace.deliveryLag();
+        if (deliveryLag >= 0) {
+            DELIVERY.record(deliveryLag);
+        }
+        scheduleSave(context);
+        return seq;
+    }
+
+    /**
+     * Records that the fire reached a stage. Later marks of the same stage,
+     * e.g. when a sound is restarted, are ignored, as are traces that were
+     * already overwritten in the ring.
+     */
+    public static void mark(Context context, long seq, int stage, long elapsed) {
+        if (seq < 0) {
+            return;
+        }
+        Trace trace = TRACES.get(slotOf(seq));
+        if (trace == null || trace.seq != seq || !trace.stages.compareAndSet(stage, 0, elapsed)) {
+            return;
+        }
+
+        long sinceReceived = elapsed - trace.receivedElapsed;
+        switch (stage) {
+            case STAGE_SERVICE_STARTED:
+                SERVICE_START.record(sinceReceived);
+                break;
+            case STAGE_AUDIBLE:
+                AUDIBLE.record(sinceReceived);
+                if (trace.deliveryLag() >= 0) {
+                    SCHEDULED_TO_AUDIBLE.record(trace.deliveryLag() + sinceReceived);
+                }
+                break;
+            case STAGE_NOTIFIED:
+                NOTIFICATION.record(sinceReceived);
+                break;
+            default:
+                return;
+        }
+
+        if (trace.isComplete() && trace.reported.compareAndSet(false, true)) {
+            Context appContext = context.getApplicationContext();
+            AlarmExecutor.execute(() -> report(appContext, trace));
+        }
+        scheduleSave(context);
+    }
+
+    /**
+     * Histograms of every metric and the latest traces, oldest first.
+     * Runs on the AlarmExecutor thread, after the persisted histograms are loaded.
+     */
+    static JSObject snapshot(Context context, boolean reset) {
+        load(context);
+
+        JSObject histograms = new JSObject();
+        for (int i = 0; i < METRICS.length; i++) {
+            histograms.put(METRICS[i], HISTOGRAMS[i].toJSObject());
+        }
+
+        JSArray traces = new JSArray();
+        long newest = NEXT_SEQ.get();
+        for (long seq = Math.max(0, newest - TRACE_CAPACITY); seq < newest; seq++) {
+            Trace trace = TRACES.get(slotOf(seq));
+            if (trace != null && trace.seq == seq) {
+                traces.put(trace.toJSObject());
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("histograms", histograms);
+        result.put("recent", traces);
+
+        if (reset) {
+            for (LatencyHistogram histogram : HISTOGRAMS) {
+                histogram.reset();
+            }
+            for (int i = 0; i < TRACE_CAPACITY; i++) {
+                TRACES.set(i, null);
+            }
+            save(context);
+        }
+        return result;
+    }
+
+    private static int slotOf(long seq) {
+        return (int) (seq % TRACE_CAPACITY);
+    }
+
+    // Sends a finished trace to the web view when the app asked for it
+    private static void report(Context context, Trace trace) {
+        if (AlarmEventJournal.isAttached() && new AlarmConfig(context).getLatencyEvents()) {
+            AlarmEventJournal.deliverTransient(EVENT_LATENCY, trace.toJSObject());
+        }
+    }
+
+    // Coalesces the saves of one fire into a single write on the AlarmExecutor thread
+    private static void scheduleSave(Context context) {
+        if (!SAVE_PENDING.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        AlarmExecutor.execute(() -> {
+            SAVE_PENDING.set(false);
+            save(appContext);
+        });
+    }
+
+    // Adds the histograms of earlier processes to the ones recorded since start
+    private static void load(Context context) {
+        if (!LOADED.compareAndSet(false, true)) {
+            return;
+        }
+        SharedPreferences prefs = prefs(context);
+        for (int i = 0; i < METRICS.length; i++) {
+            HISTOGRAMS[i].merge(prefs.getString(METRICS[i], null));
+        }
+    }
+
+    private static void save(Context context) {
+        load(context);
+        SharedPreferences.Editor editor = prefs(context).edit();
+        for (int i = 0; i < METRICS.length; i++) {
+            editor.putString(METRICS[i], HISTOGRAMS[i].encode());
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,381 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaPlayer;
+import android.media.SoundPool;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owns the audio resources of AlarmService, one instance per process.
+ *
+ * A single MediaPlayer is reused across consecutive alarms: a new alarm
+ * stops the previous sound and either restarts the already prepared source
+ * or resets the same instance for the new one. Short sounds bundled with the
+ * app (android.resource URIs) are decoded into a SoundPool by
+ * {@link #preload(Context, Uri)} on the AlarmExecutor thread, when the alarm
+ * is scheduled, and then start without any decoder setup. Firing never
+ * touches the disk on the main thread: a sound that is not decoded yet plays
+ * through the MediaPlayer and is decoded in the background for the next ring.
+ *
+ * The player and the pool outlive AlarmService, so what was decoded for one
+ * alarm is still there for the next one. Playback methods run on the main thread.
+ */
+public class AlarmPlayer {
+
+    private static final String TAG = "AlarmPlayer";
+
+    // SoundPool keeps decoded PCM in memory, only small files are worth it
+    private static final long MAX_SAMPLE_BYTES = 512 * 1024;
+
+    public interface Listener {
+        void onStarted();
+
+        void onFinished();
+
+        void onError();
+    }
+
+    /**
+     * The MediaPlayer calls AlarmPlayer makes, behind an interface so the
+     * reuse of a prepared sound can be tested without a device.
+     */
+    interface Media {
+        // Resets to the new source and prepares it, onPrepared runs once it can start
+        void prepare(Context context, Uri uri, Runnable onPrepared, Runnable onCompletion, Runnable onError) throws Exception;
+
+        // Hands the end of the prepared sound to another alarm
+        void setCallbacks(Runnable onCompletion, Runnable onError);
+
+        void start();
+
+        // Pauses and rewinds, throws IllegalStateException when nothing is prepared
+        void rewind();
+    }
+
+    private static final class SystemMedia implements Media {
+        private MediaPlayer mediaPlayer;
+
+        @Override
+        public void prepare(Context context, Uri uri, Runnable onPrepared, Runnable onCompletion, Runnable onError) throws Exception {
+            if (mediaPlayer == null) {
+                mediaPlayer = new MediaPlayer();
+            } else {
+                mediaPlayer.reset();
+            }
+            mediaPlayer.setDataSource(context, uri);
+            mediaPlayer.setAudioAttributes(alarmAttributes());
+            mediaPlayer.setOnPreparedListener(mp -> onPrepared.run());
+            setCallbacks(onCompletion, onError);
+            mediaPlayer.prepareAsync();
+        }
+
+        @Override
+        public void setCallbacks(Runnable onCompletion, Runnable onError) {
+            mediaPlayer.setOnCompletionListener(mp -> onCompletion.run());
+            mediaPlayer.setOnErrorListener((mp, what, extra) -> {
+                Log.e(TAG, "Error playing sound: " + what + "/" + extra);
+                onError.run();
+                return true;
+            });
+        }
+
+        @Override
+        public void start() {
+            mediaPlayer.start();
+        }
+
+        @Override
+        public void rewind() {
+            if (mediaPlayer == null) {
+                return;
+            }
+            if (mediaPlayer.isPlaying()) {
+                mediaPlayer.pause();
+            }
+            mediaPlayer.seekTo(0);
+        }
+    }
+
+    private static class Sample {
+        final int soundId;
+        final long durationMs;
+        // Set by the load-complete callback on the main thread
+        volatile boolean loaded;
+
+        Sample(int soundId, long durationMs) {
+            this.soundId = soundId;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private static AlarmPlayer instance;
+
+    private final Context context;
+    // Created with the first sample timer
+    private Handler handler;
+
+    private final Media media;
+    // Key of the sound the media is prepared with
+    private String preparedKey;
+
+    // Created and filled on the AlarmExecutor thread, played on the main thread
+    private volatile SoundPool soundPool;
+    private final Map<String, Sample> samples = new ConcurrentHashMap<>();
+    // Sounds that were probed and are played through the MediaPlayer
+    private final Map<String, Boolean> mediaOnly = new ConcurrentHashMap<>();
+    private Sample pendingSample;
+    private int streamId;
+
+    // Bumped on every play/stop so callbacks of an earlier alarm are ignored
+    private int generation;
+    private Listener listener;
+
+    AlarmPlayer(Context appContext, Media media) {
+        this.context = appContext;
+        this.media = media;
+    }
+
+    public static synchronized AlarmPlayer getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlarmPlayer(context.getApplicationContext(), new SystemMedia());
+        }
+        return instance;
+    }
+
+    /**
+     * Decodes a short bundled sound into the SoundPool ahead of its alarm.
+     * Does the file probing and decoding on the AlarmExecutor thread, other
+     * sounds are left to the MediaPlayer.
+     */
+    public static void preload(Context context, Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        AlarmPlayer player = getInstance(context);
+        AlarmExecutor.execute(() -> player.loadSample(uri));
+    }
+
+    public void play(Uri uri, Listener listener) {
+        play(uri.toString(), uri, listener);
+    }
+
+    // The key stands for the URI, tests play without one
+    void play(String key, Uri uri, Listener listener) {
+        stop();
+        this.listener = listener;
+
+        Sample sample = samples.get(key);
+        if (sample != null) {
+            playSample(sample);
+        } else {
+            playMedia(key, uri);
+            // Decoded in the background, the next ring of this sound starts from the pool
+            preload(context, uri);
+        }
+    }
+
+    /**
+     * Silences the current sound but keeps the prepared source and decoded samples for the next alarm.
+     */
+    public void stop() {
+        generation++;
+        listener = null;
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+        }
+        pendingSample = null;
+
+        try {
+            media.rewind();
+        } catch (IllegalStateException e) {
+            // Not prepared yet, the next play() resets it
+            preparedKey = null;
+        }
+
+        if (soundPool != null && streamId != 0) {
+            soundPool.stop(streamId);
+            streamId = 0;
+        }
+    }
+
+    private void playMedia(String key, Uri uri) {
+        int token = generation;
+        // Bound to this alarm, the callbacks of an earlier one are ignored
+        Runnable onCompletion = () -> notifyFinished(token);
+        Runnable onError = () -> {
+            preparedKey = null;
+            notifyError(token);
+        };
+
+        // Same sound as the previous alarm: the decoder is still set up, only the callbacks move over
+        if (key.equals(preparedKey)) {
+            media.setCallbacks(onCompletion, onError);
+            media.start();
+            notifyStarted(token);
+            return;
+        }
+
+        preparedKey = null;
+        try {
+            media.prepare(context, uri, () -> {
+                if (token != generation) {
+                    return;
+                }
+                preparedKey = key;
+                media.start();
+                notifyStarted(token);
+            }, onCompletion, onError);
+        } catch (Exception e) {
+            Log.e(TAG, "Error playing sound: " + e.getMessage());
+            notifyError(token);
+        }
+    }
+
+    private void playSample(Sample sample) {
+        if (sample.loaded) {
+            startSample(sample, generation);
+        } else {
+            // Still decoding, started by the load-complete callback
+            pendingSample = sample;
+        }
+    }
+
+    // Runs on the AlarmExecutor thread
+    private void loadSample(Uri uri) {
+        String key = uri.toString();
+        if (samples.containsKey(key) || mediaOnly.containsKey(key)) {
+            return;
+        }
+        if (!isShortBundledSound(uri)) {
+            mediaOnly.put(key, true);
+            return;
+        }
+
+        long durationMs = readDuration(uri);
+        if (durationMs <= 0) {
+            // Without a duration the end of the alarm sound cannot be detected
+            mediaOnly.put(key, true);
+            return;
+        }
+
+        try (AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            samples.put(key, new Sample(pool().load(afd, 1), durationMs));
+        } catch (Exception e) {
+            Log.e(TAG, "Could not decode sample: " + e.getMessage());
+            mediaOnly.put(key, true);
+        }
+    }
+
+    private SoundPool pool() {
+        if (soundPool == null) {
+            SoundPool pool = new SoundPool.Builder()
+                    .setMaxStreams(1)
+                    .setAudioAttributes(alarmAttributes())
+                    .build();
+            // Created on a thread without a looper, so the callback runs on the main thread
+            pool.setOnLoadCompleteListener((loadedPool, soundId, status) -> {
+                for (Map.Entry<String, Sample> candidate : samples.entrySet()) {
+                    if (candidate.getValue().soundId != soundId) {
+                        continue;
+                    }
+                    candidate.getValue().loaded = status == 0;
+                    if (status != 0) {
+                        // Played through the MediaPlayer from now on
+                        samples.remove(candidate.getKey());
+                        mediaOnly.put(candidate.getKey(), true);
+                    }
+                }
+                Sample pending = pendingSample;
+                if (pending != null && pending.soundId == soundId) {
+                    pendingSample = null;
+                    if (pending.loaded) {
+                        startSample(pending, generation);
+                    } else {
+                        notifyError(generation);
+                    }
+                }
+            });
+            soundPool = pool;
+        }
+        return soundPool;
+    }
+
+    private void startSample(Sample sample, int token) {
+        streamId = soundPool.play(sample.soundId, 1f, 1f, 1, 0, 1f);
+        if (streamId == 0) {
+            notifyError(token);
+            return;
+        }
+        notifyStarted(token);
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.postDelayed(() -> notifyFinished(token), sample.durationMs);
+    }
+
+    private static AudioAttributes alarmAttributes() {
+        return new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_ALARM)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build();
+    }
+
+    private boolean isShortBundledSound(Uri uri) {
+        if (!ContentResolver.SCHEME_ANDROID_RESOURCE.equals(uri.getScheme())) {
+            return false;
+        }
+        try (AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            return afd != null && afd.getLength() > 0 && afd.getLength() <= MAX_SAMPLE_BYTES;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private long readDuration(Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration != null ? Long.parseLong(duration) : 0;
+        } catch (Exception e) {
+            return 0;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private void notifyStarted(int token) {
+        if (token == generation && listener != null) {
+            listener.onStarted();
+        }
+    }
+
+    private void notifyFinished(int token) {
+        if (token == generation && listener != null) {
+            Listener finished = listener;
+            listener = null;
+            finished.onFinished();
+        }
+    }
+
+    private void notifyError(int token) {
+        if (token == generation && listener != null) {
+            Listener failed = listener;
+            listener = null;
+            failed.onError();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A page request against AlarmStorage, built from the queryAlarms options.
+ *
+ * The time range is cut from the storage time index, so only alarms inside
+ * [from, to] are ever visited. Pages can be walked either with offset/limit
+ * or with the opaque cursor returned as nextCursor, which stays stable while
+ * alarms are added or removed between calls.
+ */
+public class AlarmQuery {
+
+    public static final int DEFAULT_LIMIT = 100;
+
+    public enum Sort { TIMESTAMP, ID }
+
+    final long from;
+    final long to;
+    final Sort sort;
+    final boolean descending;
+    final int offset;
+    final int limit;
+    // "timestamp:id" of the last alarm of the previous page
+    final long cursorTimestamp;
+    final int cursorId;
+    final boolean hasCursor;
+    // Projection, at most one of them is set
+    final Set<String> fields;
+    final Set<String> omit;
+
+    private AlarmQuery(long from, long to, Sort sort, boolean descending, int offset, int limit,
+                       String cursor, Set<String> fields, Set<String> omit) {
+        this.from = from;
+        this.to = to;
+        this.sort = sort;
+        this.descending = descending;
+        this.offset = offset;
+        this.limit = limit;
+        this.fields = fields;
+        this.omit = omit;
+
+        if (cursor != null) {
+            int separator = cursor.indexOf(':');
+            try {
+                this.cursorTimestamp = Long.parseLong(cursor.substring(0, separator));
+                this.cursorId = Integer.parseInt(cursor.substring(separator + 1));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid cursor "+cursor);
+            }
+            this.hasCursor = true;
+        } else {
+            this.cursorTimestamp = 0;
+            this.cursorId = 0;
+            this.hasCursor = false;
+        }
+    }
+
+    /**
+     * Parses the queryAlarms options. Throws IllegalArgumentException with the
+     * rejection message when they are unusable.
+     */
+    public static AlarmQuery fromOptions(JSObject options) {
+        long from = options.optLong("from", Long.MIN_VALUE);
+        long to = options.optLong("to", Long.MAX_VALUE);
+        int offset = options.optInt("offset", 0);
+        int limit = options.optInt("limit", DEFAULT_LIMIT);
+        String cursor = options.getString("cursor");
+
+        Sort sort;
+        String sortName = options.getString("sort", "timestamp");
+        if ("timestamp".equals(sortName)) {
+            sort = Sort.TIMESTAMP;
+        } else if ("id".equals(sortName)) {
+            sort = Sort.ID;
+        } else {
+            throw new IllegalArgumentException("Invalid sort "+sortName);
+        }
+
+        String order = options.getString("order", "asc");
+        if (!"asc".equals(order) && !"desc".equals(order)) {
+            throw new IllegalArgumentException("Invalid order "+order);
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset "+offset);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit "+limit);
+        }
+        if (cursor != null && offset > 0) {
+            throw new IllegalArgumentException("offset and cursor can not be combined");
+        }
+
+        Set<String> fields = toSet(options.optJSONArray("fields"));
+        Set<String> omit = toSet(options.optJSONArray("omit"));
+        if (fields != null && omit != null) {
+            throw new IllegalArgumentException("fields and omit can not be combined");
+        }
+        if (fields != null) {
+            // Callers need the id to act on a result
+            fields.add("id");
+        }
+
+        return new AlarmQuery(from, to, sort, "desc".equals(order), offset, limit, cursor, fields, omit);
+    }
+
+    /**
+     * Builds the page from the alarms of one snapshot of the time index that
+     * fall inside [from, to]. Data payloads are only read from the store for
+     * the alarms of the page, and only when the projection keeps them.
+     */
+    JSObject execute(PersistentTree<JSObject> byTime, AlarmStorage storage) {
+        JSObject low = AlarmStorage.probe(from, Integer.MIN_VALUE);
+        JSObject high = AlarmStorage.probe(to, Integer.MAX_VALUE);
+        int total = byTime.count(low, high);
+
+        Iterator<JSObject> candidates;
+        if (sort == Sort.TIMESTAMP) {
+            JSObject start = descending ? high : low;
+            JSObject end = descending ? low : high;
+            boolean startInclusive = true;
+            if (hasCursor) {
+                JSObject cursor = AlarmStorage.probe(cursorTimestamp, cursorId);
+                int cmp = byTime.comparator().compare(cursor, start);
+                if (descending ? cmp <= 0 : cmp >= 0) {
+                    start = cursor;
+                    startInclusive = false;
+                }
+            }
+            candidates = byTime.iterator(start, startInclusive, end, true, descending);
+        } else {
+            List<JSObject> byId = new ArrayList<>(total);
+            Iterator<JSObject> range = byTime.iterator(low, true, high, true, false);
+            while (range.hasNext()) {
+                JSObject alarm = range.next();
+                if (!hasCursor || (descending ? alarm.optInt("id") < cursorId : alarm.optInt("id") > cursorId)) {
+                    byId.add(alarm);
+                }
+            }
+            Collections.sort(byId, (a, b) -> descending
+                    ? Integer.compare(b.optInt("id"), a.optInt("id"))
+                    : Integer.compare(a.optInt("id"), b.optInt("id")));
+            candidates = byId.iterator();
+        }
+
+        List<JSObject> page = new ArrayList<>();
+        int skipped = 0;
+        while (candidates.hasNext() && page.size() < limit) {
+            JSObject alarm = candidates.next();
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(alarm);
+        }
+        JSObject last = page.isEmpty() ? null : page.get(page.size() - 1);
+
+        if (fields != null ? fields.contains("data") : omit == null || !omit.contains("data")) {
+            page = storage.withPayloads(page);
+        }
+
+        JSArray alarms = new JSArray();
+        for (JSObject alarm : page) {
+            alarms.put(project(alarm));
+        }
+
+        JSObject result = new JSObject();
+        result.put("alarms", alarms);
+        result.put("total", total);
+        if (last != null && candidates.hasNext()) {
+            result.put("nextCursor", last.optLong("timestamp") + ":" + last.optInt("id"));
+        }
+        return result;
+    }
+
+    private JSObject project(JSObject alarm) {
+        if (fields == null && omit == null) {
+            return alarm;
+        }
+        JSObject projected = new JSObject();
+        Iterator<String> keys = alarm.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (fields != null ? fields.contains(key) : !omit.contains(key)) {
+                projected.put(key, alarm.opt(key));
+            }
+        }
+        return projected;
+    }
+
+    private static Set<String> toSet(JSONArray array) {
+        if (array == null) {
+            return null;
+        }
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < array.length(); i++) {
+            set.add(array.optString(i));
+        }
+        return set;
+    }
+}
@@ -1,100 +1,152 @@
 package hu.bk.plugins.capacitorExactAlarm;
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.getcapacitor.JSObject;
 
+import java.util.List;
+
 
 public class AlarmReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        long receivedAt = SystemClock.elapsedRealtime();
+        long firedAt = System.currentTimeMillis();
+        Context appContext = context.getApplicationContext();
+
+        // Critical path: the service starts with just the id and reads the record itself,
+        // then hands the bookkeeping of the fire back through handleFired()
+        Intent serviceIntent = new Intent(appContext, AlarmService.class);
+        // Legacy registrations carry the whole alarm in their extras
+        serviceIntent.putExtras(intent);
+        serviceIntent.putExtra("firedAt", firedAt);
+        serviceIntent.putExtra("receivedAt", receivedAt);
+        try {
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+                appContext.startForegroundService(serviceIntent);
+            } else {
+                appContext.startService(serviceIntent);
+            }
+            return;
+        } catch (RuntimeException e) {
+            Log.e("AlarmReceiver", "Could not start the alarm service", e);
+        }
+
+        // Nothing rings, the alarm is still moved on
+        AlarmExecutor.executeAsync(goAsync(), () -> {
+            JSObject alarm = AlarmScheduler.resolveFiredAlarm(appContext, intent);
+            if (alarm != null) {
+                handleFired(appContext, alarm, firedAt);
+            }
+        });
+    }
+
+    /**
+     * Bookkeeping of a fire: coalescing, the triggered event, reschedule and
+     * rearm. Runs on the AlarmExecutor thread, queued once the record was
+     * read for the ringing session, so a reschedule can not remove it first.
+     */
+    static void handleFired(Context context, JSObject alarm, long firedAt) {
         AlarmStorage alarmStorage = AlarmStorage.getInstance(context);
+        AlarmScheduler scheduler = new AlarmScheduler(context);
 
-        int alarmId = intent.getIntExtra("alarmId", -1);
-        String title = intent.getStringExtra("title");
-        String msg = intent.getStringExtra("msg");
-        String soundName = intent.getStringExtra("soundName");
-        String data = intent.getStringExtra("data");
-        String icon = intent.getStringExtra("icon");
-        String dismissText = intent.getStringExtra("dismissText");
-        String missedText = intent.getStringExtra("missedText");
+        int alarmId = alarm.optInt("id");
 
-        capacitorExactAlarmPlugin plugin = capacitorExactAlarmPlugin.getInstance();
+        // Alarms due within the coalescing window share this wakeup
+        List<JSObject> coalesced = scheduler.takeCoalesced(alarmId, firedAt);
 
-        if(plugin != null){
-            plugin.notifyAlarmTriggered(intent);
-        }
+        if (!coalesced.isEmpty()) {
+            int[] coalescedIds = new int[coalesced.size()];
+            String[] coalescedTitles = new String[coalesced.size()];
+            for (int i = 0; i < coalesced.size(); i++) {
+                coalescedIds[i] = coalesced.get(i).optInt("id");
+                coalescedTitles[i] = coalesced.get(i).getString("title");
+            }
 
-        // Start the foreground service to handle alarm
-        Intent serviceIntent = new Intent(context, AlarmService.class);
-        serviceIntent.putExtra("alarmId", alarmId);
-        serviceIntent.putExtra("title", title);
-        serviceIntent.putExtra("msg", msg);
-        serviceIntent.putExtra("soundName", soundName);
-        serviceIntent.putExtra("data", data);
-        serviceIntent.putExtra("icon", icon);
-        serviceIntent.putExtra("dismissText", dismissText);
-        serviceIntent.putExtra("missedText", missedText);
-
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-            context.startForegroundService(serviceIntent);
-        } else {
-            context.startService(serviceIntent);
+            // Adds them to the session that is already ringing
+            Intent coalesceIntent = new Intent(context, AlarmService.class);
+            coalesceIntent.setAction("COALESCE_ALARMS");
+            coalesceIntent.putExtra("alarmId", alarmId);
+            coalesceIntent.putExtra("coalescedIds", coalescedIds);
+            coalesceIntent.putExtra("coalescedTitles", coalescedTitles);
+            context.startService(coalesceIntent);
         }
 
-        long interval = intent.getLongExtra("repeatInterval", 0);
-        String calendarJson = intent.getStringExtra("calendar");
+        // Journaled, so the event also reaches a web view that is not attached yet.
+        // The data is read here because reschedule() removes one-shot alarms with their payload.
+        AlarmEventJournal.publishNow(context, AlarmEventJournal.EVENT_TRIGGERED, alarm, alarmStorage.getPayload(alarmId), firedAt);
+        for (JSObject companion : coalesced) {
+            AlarmEventJournal.publishNow(context, AlarmEventJournal.EVENT_TRIGGERED, companion,
+                    alarmStorage.getPayload(companion.optInt("id")), firedAt);
+        }
+        Log.d("AlarmReceiver", "Alarm " + alarmId + " delivered " + (firedAt - alarm.optLong("timestamp")) + "ms late");
 
+        reschedule(alarmStorage, scheduler, alarm);
+        for (JSObject companion : coalesced) {
+            reschedule(alarmStorage, scheduler, companion);
+        }
 
-        if (interval > 0 || calendarJson != null) {
-            long nextTime=0;
+        // Pull the next alarms into the armed head when running in queue mode
+        scheduler.rearm();
+    }
 
-            if(interval > 0){
-                nextTime = System.currentTimeMillis() + interval;
+    /**
+     * Fire time that follows the stored occurrence of a repeating alarm that
+     * has just rung, -1 when there is none. Counted from the occurrence itself
+     * as well as from now: a coalesced companion rings before its stored time,
+     * and counting from now alone would give it that same occurrence again.
+     */
+    static long nextFireTime(JSObject alarm, long now) {
+        long occurrence = Math.max(now, alarm.optLong("timestamp"));
+        JSObject calendarObj = alarm.getJSObject("calendar");
+        if (calendarObj != null) {
+            try {
+                return RecurrenceRule.fromCalendar(calendarObj).next(occurrence);
+            } catch (RuntimeException e) {
+                return -1;
             }
+        }
+        // On the grid of the anchor, the delay of this delivery does not carry over
+        return AnchoredRepeat.next(alarm, now);
+    }
 
-            if(calendarJson != null){
-                try{
-                    JSObject calObj = new JSObject(calendarJson);
-                    nextTime = capacitorExactAlarmPlugin.computeNextCalendarTimestamp(calObj);
-                } catch (Exception e) {
-                    Log.e("AlarmReceiver", "Failed to reschedule", e);
-                }
-            }
+    // Moves a repeating alarm to its next fire time, or drops a one-shot alarm from storage
+    private static void reschedule(AlarmStorage alarmStorage, AlarmScheduler scheduler, JSObject alarm) {
+        int alarmId = alarm.optInt("id");
+        long interval = alarm.optLong("repeatInterval", 0);
+        JSObject calendarObj = alarm.getJSObject("calendar");
 
-            AlarmManager alarmManager =
-                    (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 
-            Intent nextIntent = new Intent(context, AlarmReceiver.class);
-            nextIntent.setAction("ALARM_" + alarmId);
-            nextIntent.putExtra("alarmId", alarmId);
-            nextIntent.putExtras(intent.getExtras());
+        if (interval > 0 || calendarObj != null) {
+            long nextTime = nextFireTime(alarm, System.currentTimeMillis());
+            if (nextTime < 0) {
+                // The rule has no occurrence left, or the calendar can not be read
+                Log.w("AlarmReceiver", "Alarm " + alarmId + " has no occurrence left");
+                alarmStorage.removeAlarm(alarmId);
+                return;
+            }
 
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                    context,
-                    alarmId,
-                    nextIntent,
-                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-            );
+            alarmStorage.updateAlarmTimeStamp(alarmId,nextTime);
 
-            alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.RTC_WAKEUP,
-                    nextTime,
-                    pendingIntent
-            );
-            Log.e("AlarmReceiver", "Alarm rescheduled");
+            if (scheduler.isQueueMode()) {
+                // Head-of-queue mode: storage decides what gets armed next
+                return;
+            }
 
-            alarmStorage.updateAlarmTimeStamp(alarmId,nextTime);
+            // Re-registered from the stored record, the intent itself only holds the id
+            JSObject next = alarmStorage.getAlarm(alarmId);
+            if (next != null) {
+                scheduler.schedule(next);
+                Log.e("AlarmReceiver", "Alarm rescheduled");
+            }
 
         }else{
             alarmStorage.removeAlarm(alarmId);
         }
-
     }
 
 
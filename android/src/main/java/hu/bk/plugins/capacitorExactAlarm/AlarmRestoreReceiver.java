@@ -0,0 +1,31 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Re-arms stored alarms after the system dropped or invalidated the
+ * AlarmManager registrations: reboot, app update, clock or time zone change.
+ */
+public class AlarmRestoreReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "AlarmRestoreReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action)
+                && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)
+                && !Intent.ACTION_TIME_CHANGED.equals(action)
+                && !Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+            return;
+        }
+
+        Log.d(TAG, "Restoring alarms after " + action);
+
+        Context appContext = context.getApplicationContext();
+        AlarmExecutor.executeAsync(goAsync(), () -> new AlarmScheduler(appContext).restoreAll());
+    }
+}
@@ -0,0 +1,450 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers and cancels stored alarms with the system AlarmManager.
+ * The PendingIntent request code is always the alarm id, so the same alarm
+ * maps to the same system registration no matter who arms it. The registered
+ * intent only holds the alarm id, the rest is read from AlarmStorage on fire.
+ *
+ * With {@link AlarmConfig#getMaxArmedAlarms()} above 0 the scheduler runs in
+ * head-of-queue mode: AlarmStorage stays the source of truth and only the
+ * earliest N alarms are registered. {@link #rearm()} is called after every
+ * change to the queue, including each time an alarm fires.
+ */
+public class AlarmScheduler {
+
+    private static final String TAG = "AlarmScheduler";
+
+    // Marks the slim alarm intents, intents without it carry the whole alarm in their extras
+    static final String EXTRA_SCHEMA_VERSION = "schemaVersion";
+    static final int INTENT_SCHEMA_VERSION = 2;
+
+    private static final String STATE_PREFS_NAME = "AlarmSchedulerState";
+    // Registrations made in head-of-queue mode, stored as "id@timestamp"
+    private static final String KEY_ARMED = "armed";
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+    private final AlarmStorage alarmStorage;
+    private final AlarmConfig config;
+    private final SharedPreferences state;
+
+    public AlarmScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.alarmManager = (AlarmManager) this.context.getSystemService(Context.ALARM_SERVICE);
+        this.alarmStorage = AlarmStorage.getInstance(this.context);
+        this.config = new AlarmConfig(this.context);
+        this.state = this.context.getSharedPreferences(STATE_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean isQueueMode() {
+        return config.getMaxArmedAlarms() > 0;
+    }
+
+    /**
+     * Arms freshly stored alarms, either directly or by refreshing the queue head.
+     */
+    public void onAlarmsAdded(List<JSObject> alarms) {
+        if (isQueueMode()) {
+            rearm();
+            return;
+        }
+        for (JSObject alarm : alarms) {
+            schedule(alarm);
+        }
+    }
+
+    /**
+     * Cancels an alarm that has already been removed from AlarmStorage.
+     */
+    public void onAlarmRemoved(int alarmId) {
+        cancel(alarmId);
+        if (isQueueMode()) {
+            rearm();
+        }
+    }
+
+    /**
+     * Re-arms an alarm changed in place. The registration only holds the id,
+     * so it is replaced, under the same request code, only when the fire time moved.
+     */
+    public void onAlarmUpdated(JSObject alarm, long previousTimestamp) {
+        if (isQueueMode()) {
+            rearm();
+            return;
+        }
+        if (alarm.optLong("timestamp") != previousTimestamp) {
+            schedule(alarm);
+        }
+    }
+
+    /**
+     * Moves an alarm to a new fire time. A ringing one-shot alarm has already
+     * been removed from storage, it is stored again from the record of its
+     * ringing session, with the data kept by the event journal.
+     * Returns the snoozed alarm, or null when there is nothing to snooze.
+     */
+    public JSObject snooze(int alarmId, long snoozeUntil, JSObject ringing) {
+        JSObject timestamp = new JSObject();
+        timestamp.put("timestamp", snoozeUntil);
+
+        JSObject previous = alarmStorage.getAlarm(alarmId);
+        JSObject snoozed = alarmStorage.patchAlarm(alarmId, timestamp);
+        if (snoozed != null) {
+            onAlarmUpdated(snoozed, previous != null ? previous.optLong("timestamp") : 0);
+            Log.d(TAG, "Alarm " + alarmId + " snoozed until " + snoozeUntil);
+            return snoozed;
+        }
+
+        if (ringing == null) {
+            return null;
+        }
+
+        snoozed = restoreRinging(alarmStorage, alarmId, snoozeUntil, ringing,
+                AlarmEventJournal.getInstance(context).findData(alarmId));
+        onAlarmsAdded(Collections.singletonList(snoozed));
+        Log.d(TAG, "One-shot alarm " + alarmId + " snoozed until " + snoozeUntil);
+        return snoozed;
+    }
+
+    /**
+     * Stores a ringing one-shot alarm again from the record of its session,
+     * moved to snoozeUntil and with its data payload when it had one.
+     * Returns the stored record.
+     */
+    static JSObject restoreRinging(AlarmStorage alarmStorage, int alarmId, long snoozeUntil, JSObject ringing, String data) {
+        JSObject restored = new JSObject();
+        Iterator<String> keys = ringing.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            restored.put(key, ringing.opt(key));
+        }
+        restored.put("id", alarmId);
+        restored.put("timestamp", snoozeUntil);
+        if (data != null) {
+            restored.put("data", data);
+        }
+
+        alarmStorage.addAlarm(restored);
+        return alarmStorage.getAlarm(alarmId);
+    }
+
+    /**
+     * Cancels every registration, used after AlarmStorage has been cleared.
+     */
+    public void onAllAlarmsRemoved(Iterable<Integer> alarmIds) {
+        for (Integer alarmId : alarmIds) {
+            cancel(alarmId);
+        }
+        synchronized (AlarmScheduler.class) {
+            disarmAll();
+        }
+    }
+
+    /**
+     * Brings the system registrations in line with the current mode,
+     * called when maxArmedAlarms changes.
+     */
+    public void applyMode() {
+        synchronized (AlarmScheduler.class) {
+            disarmAll();
+            if (isQueueMode()) {
+                for (JSObject alarm : alarmStorage.getAlarmsByTime()) {
+                    cancel(alarm.optInt("id"));
+                }
+                rearm();
+            } else {
+                for (JSObject alarm : alarmStorage.getAlarmsByTime()) {
+                    schedule(alarm);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds every registration from AlarmStorage after they were lost or
+     * became stale. Calendar alarms get their next occurrence recomputed,
+     * overdue repeating alarms move to their next slot and overdue one-shot
+     * alarms are dropped. Every overdue occurrence that will not ring is
+     * reported as missed. All storage changes are written in one transaction.
+     */
+    public void restoreAll() {
+        long now = System.currentTimeMillis();
+        List<JSObject> alarms = alarmStorage.getAlarmsByTime();
+
+        Map<Integer, Long> rescheduled = new HashMap<>();
+        List<Integer> removed = new ArrayList<>();
+        List<JSObject> missed = new ArrayList<>();
+
+        for (JSObject alarm : alarms) {
+            int alarmId = alarm.optInt("id");
+            long timestamp = alarm.optLong("timestamp");
+            JSObject calendarObj = alarm.getJSObject("calendar");
+            long repeatInterval = alarm.optLong("repeatInterval", 0);
+
+            if (calendarObj != null) {
+                long next;
+                try {
+                    next = RecurrenceRule.fromCalendar(calendarObj).next(now);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid calendar of alarm " + alarmId, e);
+                    next = -1;
+                }
+                if (next < 0) {
+                    // The rule has run out of occurrences
+                    removed.add(alarmId);
+                    if (timestamp <= now) {
+                        missed.add(alarm);
+                    }
+                } else {
+                    if (next != timestamp) {
+                        rescheduled.put(alarmId, next);
+                    }
+                    if (timestamp <= now) {
+                        // The stored occurrence passed without ringing
+                        missed.add(alarm);
+                    }
+                }
+            } else if (timestamp <= now && repeatInterval > 0) {
+                // Back on the grid of the anchor, missed slots follow the missedPolicy
+                long next = AnchoredRepeat.resume(alarm, now);
+                rescheduled.put(alarmId, next);
+                if (next > now) {
+                    // Skipped rather than rung right away
+                    missed.add(alarm);
+                }
+            } else if (timestamp <= now) {
+                removed.add(alarmId);
+                missed.add(alarm);
+            }
+        }
+
+        alarmStorage.updateAlarms(rescheduled, removed);
+
+        if (!missed.isEmpty()) {
+            NotificationHelper.showMissedNotifications(context, missed);
+        }
+
+        synchronized (AlarmScheduler.class) {
+            for (Integer alarmId : removed) {
+                cancel(alarmId);
+            }
+            // The head may have moved, e.g. after TIME_SET, so rearm() starts from nothing armed
+            disarmAll();
+            if (isQueueMode()) {
+                rearm();
+            } else {
+                for (JSObject alarm : alarmStorage.getAlarmsByTime()) {
+                    schedule(alarm);
+                }
+            }
+        }
+
+        Log.d(TAG, "Restored " + alarmStorage.size() + " alarms, "
+                + rescheduled.size() + " rescheduled, " + missed.size() + " missed");
+    }
+
+    /**
+     * Collects the stored alarms that fall inside the coalescing window of a
+     * firing alarm and cancels their own registrations, so they are handled by
+     * the wakeup that is already running instead of waking the device again.
+     * Returns an empty list when coalescing is disabled.
+     */
+    public List<JSObject> takeCoalesced(int alarmId, long fireTime) {
+        long window = config.getCoalesceWindowMs();
+        List<JSObject> coalesced = new ArrayList<>();
+        if (window <= 0) {
+            return coalesced;
+        }
+
+        JSObject leader = alarmStorage.getAlarm(alarmId);
+        long from = leader != null ? Math.min(leader.optLong("timestamp"), fireTime) : fireTime;
+
+        for (JSObject alarm : alarmStorage.getAlarmsBetween(from - window, fireTime + window)) {
+            int id = alarm.optInt("id");
+            if (id == alarmId) {
+                continue;
+            }
+            cancel(id);
+            coalesced.add(alarm);
+        }
+
+        if (!coalesced.isEmpty()) {
+            Log.d(TAG, "Coalesced " + coalesced.size() + " alarms into the wakeup of " + alarmId);
+        }
+        return coalesced;
+    }
+
+    /**
+     * Head-of-queue mode: registers the earliest N stored alarms and cancels
+     * every earlier registration that has dropped out of the head.
+     * Alarms already armed for the same time are left untouched.
+     */
+    public void rearm() {
+        if (!isQueueMode()) {
+            return;
+        }
+
+        synchronized (AlarmScheduler.class) {
+            Map<Integer, Long> armed = loadArmed();
+            Map<Integer, Long> head = new HashMap<>();
+            for (JSObject alarm : alarmStorage.getNextAlarms(config.getMaxArmedAlarms())) {
+                head.put(alarm.optInt("id"), alarm.optLong("timestamp"));
+            }
+
+            for (Map.Entry<Integer, Long> entry : armed.entrySet()) {
+                if (!head.containsKey(entry.getKey())) {
+                    cancel(entry.getKey());
+                }
+            }
+
+            for (Map.Entry<Integer, Long> entry : head.entrySet()) {
+                if (!entry.getValue().equals(armed.get(entry.getKey()))) {
+                    schedule(alarmStorage.getAlarm(entry.getKey()));
+                }
+            }
+
+            saveArmed(head);
+            Log.d(TAG, "Queue rearmed: " + head.size() + " of " + alarmStorage.size() + " alarms armed");
+        }
+    }
+
+    public void schedule(JSObject alarm) {
+        int alarmId = alarm.optInt("id");
+        Intent intent = buildAlarmIntent(context, alarm);
+
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(
+                context,
+                alarmId,
+                intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        alarmManager.setExactAndAllowWhileIdle(
+                AlarmManager.RTC_WAKEUP,
+                alarm.optLong("timestamp"),
+                pendingIntent
+        );
+    }
+
+    public void cancel(int alarmId) {
+        Intent intent = new Intent(context, AlarmReceiver.class);
+        intent.setAction("ALARM_" + alarmId);
+        intent.putExtra("alarmId", alarmId);
+
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(
+                context,
+                alarmId,
+                intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        alarmManager.cancel(pendingIntent);
+    }
+
+    // Cancels every registration the queue holds and forgets them, the caller holds the class lock
+    private void disarmAll() {
+        for (Integer alarmId : loadArmed().keySet()) {
+            cancel(alarmId);
+        }
+        state.edit().remove(KEY_ARMED).commit();
+    }
+
+    private Map<Integer, Long> loadArmed() {
+        Map<Integer, Long> armed = new HashMap<>();
+        Set<String> entries = state.getStringSet(KEY_ARMED, null);
+        if (entries == null) {
+            return armed;
+        }
+        for (String entry : entries) {
+            int separator = entry.indexOf('@');
+            try {
+                armed.put(Integer.parseInt(entry.substring(0, separator)), Long.parseLong(entry.substring(separator + 1)));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return armed;
+    }
+
+    private void saveArmed(Map<Integer, Long> armed) {
+        Set<String> entries = new HashSet<>();
+        for (Map.Entry<Integer, Long> entry : armed.entrySet()) {
+            entries.add(entry.getKey() + "@" + entry.getValue());
+        }
+        state.edit().putStringSet(KEY_ARMED, entries).apply();
+    }
+
+    /**
+     * The intent registered with AlarmManager. It only carries the alarm id,
+     * the receiver reads everything else from AlarmStorage when it fires, so
+     * an edited alarm does not have to be registered again unless its time changed.
+     */
+    static Intent buildAlarmIntent(Context context, JSObject alarm) {
+        int alarmId = alarm.optInt("id");
+
+        Intent intent = new Intent(context, AlarmReceiver.class);
+        intent.setAction("ALARM_" + alarmId);
+        intent.putExtra("alarmId", alarmId);
+        intent.putExtra(EXTRA_SCHEMA_VERSION, INTENT_SCHEMA_VERSION);
+        return intent;
+    }
+
+    /**
+     * The stored record of a fired alarm, null when it has been removed since.
+     * Registrations made before slim intents still carry the whole alarm in
+     * their extras, those are rebuilt from the extras when the record is missing.
+     */
+    static JSObject resolveFiredAlarm(Context context, Intent intent) {
+        int alarmId = intent.getIntExtra("alarmId", -1);
+        JSObject alarm = AlarmStorage.getInstance(context).getAlarm(alarmId);
+        if (alarm != null || intent.hasExtra(EXTRA_SCHEMA_VERSION) || alarmId == -1) {
+            return alarm;
+        }
+
+        Log.d(TAG, "Alarm " + alarmId + " fired from a legacy registration");
+        alarm = new JSObject();
+        alarm.put("id", alarmId);
+        alarm.put("timestamp", intent.getLongExtra("timestamp", 0));
+        alarm.put("title", intent.getStringExtra("title"));
+        alarm.put("msg", intent.getStringExtra("msg"));
+        alarm.put("soundName", intent.getStringExtra("soundName"));
+        alarm.put("resolvedSound", intent.getStringExtra("resolvedSound"));
+        alarm.put("icon", intent.getStringExtra("icon"));
+        alarm.put("dismissText", intent.getStringExtra("dismissText"));
+        alarm.put("missedText", intent.getStringExtra("missedText"));
+
+        String calendarJson = intent.getStringExtra("calendar");
+        if (calendarJson != null) {
+            try {
+                alarm.put("calendar", new JSObject(calendarJson));
+            } catch (Exception e) {
+                Log.e(TAG, "invalid calendar JSON", e);
+            }
+        }
+
+        long repeatInterval = intent.getLongExtra("repeatInterval", 0);
+        if (repeatInterval > 0) {
+            alarm.put("repeatInterval", repeatInterval);
+        }
+        return alarm;
+    }
+}
@@ -1,100 +1,279 @@
 package hu.bk.plugins.capacitorExactAlarm;
 
+import android.app.Notification;
+import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.media.AudioAttributes;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
 import androidx.annotation.Nullable;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
 
-public class AlarmService extends Service {
+import com.getcapacitor.JSObject;
 
-    private MediaPlayer player;
-    private Vibrator vibrator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-    public boolean uriExists(Context context,Uri uri) {
-        try {
+/**
+ * Rings alarms. Every alarm that is ringing has its own session with its own
+ * notification (id = alarm id) and stop action, so overlapping alarms can be
+ * stopped one by one. The newest session owns the sound, when it ends the
+ * next remaining session takes over. The service stops with the last session.
+ * A session can also be snoozed, which ends it and moves its alarm ahead.
+ */
+public class AlarmService extends Service {
 
-            // Try opening the stream
-            InputStream is = context.getContentResolver().openInputStream(uri);
+    private static class AlarmSession {
+        int alarmId;
+        String title;
+        String msg;
+        String soundName;
+        String soundUri;
+        String icon;
+        String dismissText;
+        String snoozeText;
+        String missedText;
+        AlarmChannel channel = AlarmChannel.DEFAULT;
+        String group;
+        String[] coalescedTitles;
+        long scheduledAt;
+        long receivedAt;
+        // AlarmMetrics trace of this fire
+        long traceSeq = -1;
 
-            if (is != null) {
-                is.close();
-                return true;
+        // The alarm as stored, used to store a one-shot alarm again when it is snoozed
+        JSObject toAlarm() {
+            JSObject alarm = new JSObject();
+            alarm.put("id", alarmId);
+            alarm.put("title", title);
+            alarm.put("msg", msg);
+            alarm.put("soundName", soundName);
+            alarm.put("resolvedSound", soundUri);
+            alarm.put("icon", icon);
+            alarm.put("dismissText", dismissText);
+            alarm.put("snoozeText", snoozeText);
+            alarm.put("missedText", missedText);
+            if (channel != AlarmChannel.DEFAULT) {
+                alarm.put("channel", channel.toJSObject());
             }
-
-            return false;
-        } catch (FileNotFoundException e) {
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+            alarm.put("group", group);
+            return alarm;
         }
     }
 
+    // Ids of the ringing alarms, read by the plugin from its own thread
+    private static volatile Set<Integer> ringingAlarmIds = Collections.emptySet();
+
+    // Ringing alarms in start order
+    private final Map<Integer, AlarmSession> sessions = new LinkedHashMap<>();
+
+    private AlarmPlayer alarmPlayer;
+    private Vibrator vibrator;
+    // Brings records read on the fire thread back to the sessions
+    private Handler mainHandler;
+    // Fires whose record is still being read, they keep the service like a session
+    private int pendingFires;
+
+    // Session whose notification keeps the service in the foreground
+    private int foregroundAlarmId = -1;
+    // Session that currently owns the sound
+    private int audibleAlarmId = -1;
+
+    /**
+     * Whether the alarm currently has a ringing session.
+     */
+    public static boolean isRinging(int alarmId) {
+        return ringingAlarmIds.contains(alarmId);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        alarmPlayer = AlarmPlayer.getInstance(this);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null && "STOP_ALARM".equals(intent.getAction())) {
-            stopAlarm();
-            stopSelf();
+        long startedAt = SystemClock.elapsedRealtime();
+        if (intent == null) {
+            // Restarted by the system without a pending alarm
+            if (isIdle()) {
+                stopSelf();
+            }
+            return START_NOT_STICKY;
+        }
+
+        if ("STOP_ALARM".equals(intent.getAction())) {
+            int alarmId = intent.getIntExtra("alarmId", -1);
+            if (alarmId == -1) {
+                for (AlarmSession session : sessions.values()) {
+                    publishDismissed(session);
+                }
+                stopAlarm();
+            } else {
+                AlarmSession session = sessions.get(alarmId);
+                if (session != null) {
+                    publishDismissed(session);
+                }
+                stopSession(alarmId);
+            }
+            // The alarm was no longer ringing, nothing else keeps the service
+            if (isIdle()) {
+                stopSelf();
+            }
+            return START_NOT_STICKY;
+        }
+
+        if ("SNOOZE_ALARM".equals(intent.getAction())) {
+            snoozeSession(intent);
+            return START_NOT_STICKY;
+        }
+
+        if ("COALESCE_ALARMS".equals(intent.getAction())) {
+            addCoalescedAlarms(intent);
             return START_NOT_STICKY;
         }
 
+        // A cold process loads the whole store to read the record, so that runs on the
+        // fire thread, never behind the bookkeeping queued on the AlarmExecutor
+        Context appContext = getApplicationContext();
+        pendingFires++;
+        AlarmExecutor.executeFire(() -> readFired(appContext, intent, startedAt));
+        return START_STICKY;
+    }
+
+    // Fire thread: reads the record, then hands it to the main thread and the bookkeeping
+    private void readFired(Context context, Intent intent, long startedAt) {
         int alarmId = intent.getIntExtra("alarmId", -1);
-        String title = intent.getStringExtra("title");
-        String msg = intent.getStringExtra("msg");
-        String soundName = intent.getStringExtra("soundName");
-        String data = intent.getStringExtra("data");
-        String icon = intent.getStringExtra("icon");
-        String dismissText = intent.getStringExtra("dismissText");
-        String missedText = intent.getStringExtra("missedText");
-
-
-        Uri soundUri = Uri.parse(soundName);
-
-        Log.d("AlarmService", "onStartCommand: "+soundName+" "+soundUri.toString());
-
-        // Try default alarm
-        if (!uriExists(this,soundUri)) {
-            soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-            Log.d("AlarmService", "onStartCommand: Try default alarm");
-        }
-
-        // try fallback to ringtone
-        if (!uriExists(this,soundUri)) {
-            soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
-            Log.d("AlarmService", "onStartCommand: Try fallback to ringtone");
-        }
-
-        player = new MediaPlayer();
-        try {
-            player.setDataSource(this, soundUri);
-            player.setAudioAttributes(
-                    new AudioAttributes.Builder()
-                            .setUsage(AudioAttributes.USAGE_ALARM)
-                            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                            .build()
-            );
-            player.prepare();
-            player.start();
-            player.setOnCompletionListener(mp -> {
+        long firedAt = intent.getLongExtra("firedAt", System.currentTimeMillis());
+        long receivedAt = intent.getLongExtra("receivedAt", 0);
+
+        JSObject alarm = AlarmScheduler.resolveFiredAlarm(context, intent);
+        if (alarm == null) {
+            Log.w("AlarmService", "Alarm " + alarmId + " is no longer stored");
+            mainHandler.post(() -> dropFired(alarmId));
+            return;
+        }
+
+        long traceSeq = AlarmMetrics.begin(context, alarmId, alarm.optLong("timestamp"), firedAt, receivedAt);
+        AlarmMetrics.mark(context, traceSeq, AlarmMetrics.STAGE_SERVICE_STARTED, startedAt);
+        mainHandler.post(() -> startSession(alarm, receivedAt, traceSeq));
+
+        // Queued only now, a reschedule could remove a one-shot record before it was read
+        AlarmExecutor.execute(() -> AlarmReceiver.handleFired(context, alarm, firedAt));
+    }
+
+    // The record went away before it rang, the start still has to end in the foreground
+    private void dropFired(int alarmId) {
+        pendingFires--;
+        if (!sessions.isEmpty()) {
+            return;
+        }
+        AlarmSession session = new AlarmSession();
+        session.alarmId = alarmId;
+        startForeground(alarmId, buildNotification(session));
+        stopForeground(true);
+        if (isIdle()) {
+            stopSelf();
+        }
+    }
+
+    private void startSession(JSObject alarm, long receivedAt, long traceSeq) {
+        pendingFires--;
+        AlarmSession session = new AlarmSession();
+        session.alarmId = alarm.optInt("id");
+        session.title = alarm.getString("title");
+        session.msg = alarm.getString("msg");
+        session.icon = alarm.getString("icon");
+        session.dismissText = alarm.getString("dismissText");
+        session.snoozeText = alarm.getString("snoozeText");
+        session.missedText = alarm.getString("missedText");
+        session.channel = NotificationHelper.storedChannel(alarm);
+        session.group = alarm.getString("group");
+        session.scheduledAt = alarm.optLong("timestamp");
+        session.receivedAt = receivedAt;
+        session.traceSeq = traceSeq;
+
+        String soundName = alarm.getString("soundName");
+        session.soundName = soundName;
+
+        // Resolved when the alarm was scheduled, only alarms stored before that need a lookup
+        String resolvedSound = alarm.getString("resolvedSound");
+        Uri soundUri = resolvedSound != null
+                ? Uri.parse(resolvedSound)
+                : AlarmSoundResolver.resolve(this, soundName);
+        session.soundUri = soundUri.toString();
+
+        Log.d("AlarmService", "startSession: "+soundName+" "+soundUri.toString());
+
+        // The same alarm firing again replaces its previous session
+        AlarmSession previous = sessions.remove(session.alarmId);
+        sessions.put(session.alarmId, session);
+        updateRingingAlarmIds();
+
+        if (foregroundAlarmId == -1 || foregroundAlarmId == session.alarmId) {
+            // Start foreground to keep service alive
+            startForeground(session.alarmId, buildNotification(session));
+            foregroundAlarmId = session.alarmId;
+        } else {
+            notifySession(session);
+        }
+        AlarmMetrics.mark(this, session.traceSeq, AlarmMetrics.STAGE_NOTIFIED, SystemClock.elapsedRealtime());
+        if (previous != null && previous.group != null && !previous.group.equals(session.group)) {
+            updateGroupSummary(previous.group);
+        }
+        updateGroupSummary(session.group);
+
+        play(session, soundUri, true);
+        startVibration();
+    }
+
+    private void play(AlarmSession session, Uri soundUri, boolean allowFallback) {
+        audibleAlarmId = session.alarmId;
+        alarmPlayer.play(soundUri, new AlarmPlayer.Listener() {
+            @Override
+            public void onStarted() {
+                logLatency(session);
+            }
+
+            @Override
+            public void onFinished() {
                 Log.d("AlarmService", "Sound finished playing");
-                stopSelf();
-                NotificationHelper.showNotification(this, missedText + title, msg, icon, data, alarmId);
-            });
+                JSObject alarm = session.toAlarm();
+                alarm.put("timestamp", session.scheduledAt);
+                NotificationHelper.showMissedNotifications(AlarmService.this, Collections.singletonList(alarm), true);
+                stopSession(session.alarmId);
+            }
+
+            @Override
+            public void onError() {
+                // The sound may have been removed since it was resolved, drop it from the cache and play the fallback
+                AlarmSoundResolver.invalidate(soundUri);
+                Uri fallback = AlarmSoundResolver.getFallback(AlarmService.this);
+                if (allowFallback && !fallback.equals(soundUri)) {
+                    play(session, fallback, false);
+                }
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            Log.e("AlarmService", "Error playing sound: " + e.getMessage());
+    private void startVibration() {
+        if (vibrator != null) {
+            // Already vibrating for an earlier session
+            return;
         }
 
         // Vibrate the phone
@@ -108,42 +287,205 @@ public class AlarmService extends Service {
                 vibrator.vibrate(pattern, 0);
             }
         }
+    }
 
-        // Start foreground to keep service alive
-        startForeground(1,
-            NotificationHelper.buildServiceNotification(
-                this,
-                alarmId,
-                title,
-                msg,
-                soundUri.toString(),
-                data,
-                icon,
-                dismissText
-            )
+    private Notification buildNotification(AlarmSession session) {
+        return NotificationHelper.buildServiceNotification(
+            this,
+            session.alarmId,
+            session.title,
+            session.msg,
+            session.soundUri,
+            session.icon,
+            session.dismissText,
+            session.snoozeText,
+            new AlarmConfig(this).getSnoozeMs(),
+            session.coalescedTitles,
+            session.scheduledAt,
+            session.channel,
+            session.group
         );
+    }
 
-        return START_STICKY;
+    // Bundles the ringing alarms of a group, or removes the summary when fewer than two are left
+    private void updateGroupSummary(String group) {
+        if (group == null) {
+            return;
+        }
+        List<String> titles = new ArrayList<>();
+        AlarmSession newest = null;
+        for (AlarmSession session : sessions.values()) {
+            if (group.equals(session.group)) {
+                titles.add(session.title);
+                newest = session;
+            }
+        }
+        NotificationHelper.showGroupSummary(this, group, titles,
+                newest != null ? newest.channel : AlarmChannel.DEFAULT,
+                newest != null ? newest.icon : null);
     }
 
-    private void stopAlarm() {
-        if (player != null) {
-            player.stop();
-            player.release();
-            player = null;
+    private void notifySession(AlarmSession session) {
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager != null) {
+            notificationManager.notify(session.alarmId, buildNotification(session));
+        }
+    }
+
+    // Lists alarms that share this wakeup on the notification of their session
+    private void addCoalescedAlarms(Intent intent) {
+        AlarmSession session = sessions.get(intent.getIntExtra("alarmId", -1));
+        if (session == null) {
+            // The session already ended, nothing left to update
+            if (isIdle()) {
+                stopSelf();
+            }
+            return;
         }
 
+        session.coalescedTitles = intent.getStringArrayExtra("coalescedTitles");
+        notifySession(session);
+    }
+
+    /**
+     * Ends a ringing session and moves its alarm ahead, either to the
+     * snoozeUntil extra set by snoozeAlarm() or by the configured snooze time.
+     * Storage work runs on the AlarmExecutor thread, after the bookkeeping
+     * of the fire itself.
+     */
+    private void snoozeSession(Intent intent) {
+        int alarmId = intent.getIntExtra("alarmId", -1);
+        long snoozeUntil = intent.getLongExtra("snoozeUntil", 0);
+        if (snoozeUntil <= 0) {
+            snoozeUntil = System.currentTimeMillis() + new AlarmConfig(this).getSnoozeMs();
+        }
+
+        AlarmSession session = sessions.get(alarmId);
+        JSObject ringing = session != null ? session.toAlarm() : null;
+        if (session != null) {
+            stopSession(alarmId);
+        } else if (isIdle()) {
+            stopSelf();
+        }
+
+        Context appContext = getApplicationContext();
+        long until = snoozeUntil;
+        AlarmExecutor.execute(() -> new AlarmScheduler(appContext).snooze(alarmId, until, ringing));
+    }
+
+    // Reports a session stopped by the user, from the notification or through stopAlarm()
+    private void publishDismissed(AlarmSession session) {
+        AlarmEventJournal.publish(this, AlarmEventJournal.EVENT_DISMISSED, session.alarmId, session.scheduledAt,
+                AlarmEvent.buildPayload(session.alarmId, session.title, session.msg, null, session.scheduledAt));
+    }
+
+    // Fire-to-sound latency: recorded in AlarmMetrics and logged against the schedule and the broadcast
+    private void logLatency(AlarmSession session) {
+        AlarmMetrics.mark(this, session.traceSeq, AlarmMetrics.STAGE_AUDIBLE, SystemClock.elapsedRealtime());
+
+        long sinceScheduled = session.scheduledAt > 0 ? System.currentTimeMillis() - session.scheduledAt : -1;
+        long sinceReceived = session.receivedAt > 0 ? SystemClock.elapsedRealtime() - session.receivedAt : -1;
+        Log.d("AlarmService", "Alarm " + session.alarmId + " audible " + sinceScheduled + "ms after schedule, "
+                + sinceReceived + "ms after receive");
+    }
+
+    /**
+     * Ends a single session. The foreground notification and the sound move
+     * to the newest remaining session, the service stops with the last one.
+     */
+    private void stopSession(int alarmId) {
+        AlarmSession stopped = sessions.remove(alarmId);
+        if (stopped == null) {
+            return;
+        }
+        updateRingingAlarmIds();
+        updateGroupSummary(stopped.group);
+
+        if (sessions.isEmpty()) {
+            stopAlarm();
+            return;
+        }
+
+        AlarmSession newest = null;
+        for (AlarmSession session : sessions.values()) {
+            newest = session;
+        }
+
+        if (alarmId == foregroundAlarmId) {
+            startForeground(newest.alarmId, buildNotification(newest));
+            foregroundAlarmId = newest.alarmId;
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager != null) {
+            notificationManager.cancel(alarmId);
+        }
+
+        if (alarmId == audibleAlarmId) {
+            play(newest, Uri.parse(newest.soundUri), true);
+        }
+    }
+
+    // Ends every session and the service itself
+    private void stopAlarm() {
+        alarmPlayer.stop();
+        audibleAlarmId = -1;
+
         if (vibrator != null) {
             vibrator.cancel();
             vibrator = null;
         }
 
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        List<Integer> alarmIds = new ArrayList<>(sessions.keySet());
+        Set<String> groups = new HashSet<>();
+        for (AlarmSession session : sessions.values()) {
+            if (session.group != null) {
+                groups.add(session.group);
+            }
+        }
+        sessions.clear();
+        updateRingingAlarmIds();
+        if (notificationManager != null) {
+            for (Integer alarmId : alarmIds) {
+                if (alarmId != foregroundAlarmId) {
+                    notificationManager.cancel(alarmId);
+                }
+            }
+        }
+
+        for (String group : groups) {
+            updateGroupSummary(group);
+        }
+
+        foregroundAlarmId = -1;
         stopForeground(true);
+        if (isIdle()) {
+            stopSelf();
+        }
+    }
+
+    // No session is ringing and none is about to start
+    private boolean isIdle() {
+        return sessions.isEmpty() && pendingFires == 0;
+    }
+
+    private void updateRingingAlarmIds() {
+        ringingAlarmIds = Collections.unmodifiableSet(new HashSet<>(sessions.keySet()));
     }
 
     @Override
     public void onDestroy() {
-        stopAlarm();
+        // Fires still being read have nothing left to start in
+        mainHandler.removeCallbacksAndMessages(null);
+        if (!sessions.isEmpty()) {
+            stopAlarm();
+        }
+        // The player and its decoded sounds stay for the next alarm
+        alarmPlayer.stop();
         super.onDestroy();
     }
 
@@ -0,0 +1,111 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.Context;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the sound an alarm will play. Resolution happens when the alarm
+ * is scheduled, so the service does not have to probe the media provider
+ * while the alarm is firing. Probe results and the fallback are cached per process.
+ */
+public class AlarmSoundResolver {
+
+    private static final String TAG = "AlarmSoundResolver";
+
+    // uri -> whether it could be opened
+    private static final Map<String, Boolean> availability = new ConcurrentHashMap<>();
+
+    private static volatile Uri fallbackUri;
+
+    private AlarmSoundResolver() {
+    }
+
+    /**
+     * Returns the requested sound when it can be opened, otherwise the cached fallback.
+     */
+    public static Uri resolve(Context context, String soundName) {
+        if (soundName != null && !soundName.isEmpty()) {
+            Uri uri = Uri.parse(soundName);
+            if (isAvailable(context, uri)) {
+                return uri;
+            }
+            Log.d(TAG, "Sound not available, using fallback: " + soundName);
+        }
+        return getFallback(context);
+    }
+
+    /**
+     * Default notification sound, or the default ringtone when that is missing.
+     */
+    public static Uri getFallback(Context context) {
+        Uri uri = fallbackUri;
+        if (uri != null) {
+            return uri;
+        }
+
+        // Try default alarm
+        uri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+
+        // try fallback to ringtone
+        if (!isAvailable(context, uri)) {
+            uri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
+        }
+
+        fallbackUri = uri;
+        return uri;
+    }
+
+    /**
+     * Forgets a cached probe result, e.g. after the sound failed to play.
+     */
+    public static void invalidate(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        availability.remove(uri.toString());
+        if (uri.equals(fallbackUri)) {
+            fallbackUri = null;
+        }
+    }
+
+    private static boolean isAvailable(Context context, Uri uri) {
+        if (uri == null) {
+            return false;
+        }
+        String key = uri.toString();
+        Boolean cached = availability.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean exists = uriExists(context, uri);
+        availability.put(key, exists);
+        return exists;
+    }
+
+    private static boolean uriExists(Context context, Uri uri) {
+        try {
+
+            // Try opening the stream
+            InputStream is = context.getContentResolver().openInputStream(uri);
+
+            if (is != null) {
+                is.close();
+                return true;
+            }
+
+            return false;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
@@ -1,20 +1,183 @@
 package hu.bk.plugins.capacitorExactAlarm;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process wide alarm store.
+ *
+ * Readers never lock: every read works on an immutable {@link Index} snapshot
+ * published through a volatile field. Writers are serialized on a single lock,
+ * build a modified copy of the current snapshot, persist the change and then
+ * publish the copy. The copy shares every index node the write does not
+ * touch. Stored records are treated as immutable, a change to an alarm
+ * always replaces its JSObject.
+ *
+ * The "data" payload of an alarm is not part of the in-memory record. It is
+ * written once to the store as raw JSON and read back only when it is needed:
+ * by getAlarms(), by queries that ask for it and by events sent to JS.
+ */
 public class AlarmStorage {
 
+    // Orders alarms by fire time, id breaks ties so distinct alarms never collide
+    private static final Comparator<JSObject> BY_TIMESTAMP = (a, b) -> {
+        int cmp = Long.compare(a.optLong("timestamp"), b.optLong("timestamp"));
+        return cmp != 0 ? cmp : Integer.compare(a.optInt("id"), b.optInt("id"));
+    };
+
+    // Alarm entries kept in the change log before the oldest writes are dropped
+    private static final int CHANGE_LOG_CAPACITY = 1000;
+
+    private static final String EMPTY_PAYLOAD = "{}";
+
+    // Ids are reserved in blocks so allocating one rarely costs a synchronous write
+    private static final int ID_BLOCK_SIZE = 64;
+
+    // Highest id a caller may supply, the id block above it must not overflow
+    public static final int MAX_ALARM_ID = Integer.MAX_VALUE - 2 * ID_BLOCK_SIZE;
+
     private static volatile AlarmStorage instance;
 
-    private final Context context;
-    private JSArray alarms = new JSArray();
+    /**
+     * Snapshot of all alarms, indexed by id, by insertion order (kept for
+     * getAlarms()) and by fire time. Never modified once published.
+     *
+     * The indexes are persistent trees, a writer's copy shares every node it
+     * does not change with the published snapshot, so a write costs O(log n)
+     * instead of a copy of the whole index.
+     */
+    private static final class Index {
+        PersistentTree<Entry> byId = PersistentTree.empty(Entry.BY_ID);
+        PersistentTree<Entry> byOrder = PersistentTree.empty(Entry.BY_ORDER);
+        PersistentTree<JSObject> byTime = PersistentTree.empty(BY_TIMESTAMP);
+        long nextOrder;
+        // Set once before the snapshot is published
+        long version;
+        // Records with their payloads, built on the first getAlarms() call for this snapshot
+        volatile List<JSObject> withPayloads;
+
+        Index copy() {
+            Index copy = new Index();
+            copy.byId = byId;
+            copy.byOrder = byOrder;
+            copy.byTime = byTime;
+            copy.nextOrder = nextOrder;
+            copy.version = version;
+            return copy;
+        }
+
+        JSObject get(int alarmId) {
+            Entry entry = byId.get(Entry.key(alarmId));
+            return entry != null ? entry.alarm : null;
+        }
+
+        boolean contains(int alarmId) {
+            return byId.get(Entry.key(alarmId)) != null;
+        }
+
+        int size() {
+            return byId.size();
+        }
+
+        // Records in insertion order, a replaced record counts as inserted last
+        List<JSObject> alarms() {
+            List<JSObject> alarms = new ArrayList<>(byOrder.size());
+            for (Entry entry : byOrder) {
+                alarms.add(entry.alarm);
+            }
+            return alarms;
+        }
+
+        List<Integer> ids() {
+            List<Integer> alarmIds = new ArrayList<>(byOrder.size());
+            for (Entry entry : byOrder) {
+                alarmIds.add(entry.alarmId);
+            }
+            return alarmIds;
+        }
+
+        // Returns the record it replaced, if any
+        JSObject put(JSObject alarm) {
+            JSObject previous = remove(alarm.optInt("id"));
+            Entry entry = new Entry(alarm.optInt("id"), nextOrder++, alarm);
+            byId = byId.with(entry);
+            byOrder = byOrder.with(entry);
+            byTime = byTime.with(alarm);
+            return previous;
+        }
+
+        JSObject remove(int alarmId) {
+            Entry entry = byId.get(Entry.key(alarmId));
+            if (entry == null) {
+                return null;
+            }
+            byId = byId.without(entry);
+            byOrder = byOrder.without(entry);
+            byTime = byTime.without(entry.alarm);
+            return entry.alarm;
+        }
+    }
+
+    // A record with its id and its place in insertion order
+    private static final class Entry {
+        static final Comparator<Entry> BY_ID = (a, b) -> Integer.compare(a.alarmId, b.alarmId);
+        static final Comparator<Entry> BY_ORDER = (a, b) -> Long.compare(a.order, b.order);
+
+        final int alarmId;
+        final long order;
+        final JSObject alarm;
+
+        Entry(int alarmId, long order, JSObject alarm) {
+            this.alarmId = alarmId;
+            this.order = order;
+            this.alarm = alarm;
+        }
+
+        // Search key for the id index
+        static Entry key(int alarmId) {
+            return new Entry(alarmId, 0, null);
+        }
+    }
+
+    private final AlarmStore store;
+
+    private volatile Index index = new Index();
+
+    // Serializes writers, readers only ever look at the published index
+    private final Object writeLock = new Object();
+
+    // Recent writes, oldest first, for callers catching up with getChangesSince()
+    private final ArrayDeque<Change> changeLog = new ArrayDeque<>();
+    private int changeLogSize = 0;
+    private volatile ChangeListener changeListener;
+
+    private final Object idLock = new Object();
+    private int nextId = 1;
+    private int idCeiling = 0;
 
     // Private constructor ➜ prevents direct instantiation
     private AlarmStorage(Context context) {
-        this.context = context.getApplicationContext();
+        this(new SqliteAlarmStore(context));
+    }
+
+    // Lets callers plug in a different persistence engine
+    AlarmStorage(AlarmStore store) {
+        this.store = store;
         loadAlarms();
     }
 
@@ -30,86 +193,571 @@ public class AlarmStorage {
         return instance;
     }
 
+    /**
+     * Returns a new alarm id. Ids only ever grow and are never handed out twice,
+     * even across process deaths: a block of ids is persisted before any id
+     * from it is used, ids of a block lost in a crash are simply skipped.
+     */
+    public int allocateId() {
+        synchronized (idLock) {
+            while (true) {
+                if (nextId >= idCeiling) {
+                    idCeiling = nextId + ID_BLOCK_SIZE;
+                    store.saveIdCeiling(idCeiling);
+                }
+                int alarmId = nextId++;
+                if (!index.contains(alarmId)) {
+                    return alarmId;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a caller supplied id as used so the allocator never returns it.
+     * Throws IllegalArgumentException for ids above {@link #MAX_ALARM_ID}.
+     */
+    public void reserveId(int alarmId) {
+        if (alarmId > MAX_ALARM_ID) {
+            throw new IllegalArgumentException("Invalid alarm id "+alarmId);
+        }
+        synchronized (idLock) {
+            if (alarmId < nextId) {
+                return;
+            }
+            nextId = alarmId + 1;
+            if (nextId >= idCeiling) {
+                idCeiling = nextId + ID_BLOCK_SIZE;
+                store.saveIdCeiling(idCeiling);
+            }
+        }
+    }
+
+    /**
+     * Every stored alarm with its data payload, in insertion order. The array
+     * is the caller's own, the records in it are shared and must not be changed.
+     */
     public JSArray getAlarms() {
-        loadAlarms();
-        return alarms;
+        Index current = index;
+        List<JSObject> alarms = current.withPayloads;
+        if (alarms == null) {
+            alarms = Collections.unmodifiableList(withPayloads(current.alarms()));
+            current.withPayloads = alarms;
+        }
+        return new JSArray(alarms);
+    }
+
+    /**
+     * Raw JSON data payload of an alarm, null when it has none. Reads the store.
+     */
+    public String getPayload(int alarmId) {
+        return store.loadPayload(alarmId);
+    }
+
+    /**
+     * Copies of the given records with their "data" payload attached, "{}"
+     * for alarms without one. Reads the store once for all of them.
+     */
+    public List<JSObject> withPayloads(Collection<JSObject> alarms) {
+        List<Integer> alarmIds = new ArrayList<>(alarms.size());
+        for (JSObject alarm : alarms) {
+            alarmIds.add(alarm.optInt("id"));
+        }
+        Map<Integer, String> payloads = alarmIds.isEmpty()
+                ? Collections.emptyMap()
+                : store.loadPayloads(alarmIds);
+
+        List<JSObject> result = new ArrayList<>(alarms.size());
+        for (JSObject alarm : alarms) {
+            String payload = payloads.get(alarm.optInt("id"));
+            JSObject copy = copyOf(alarm, null);
+            copy.put("data", payload != null ? payload : EMPTY_PAYLOAD);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    public JSObject getAlarm(int alarmId) {
+        return index.get(alarmId);
+    }
+
+    public boolean hasAlarm(int alarmId) {
+        return index.contains(alarmId);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the stored alarms ordered by their next fire time (earliest first).
+     */
+    public List<JSObject> getAlarmsByTime() {
+        return index.byTime.toList();
+    }
+
+    /**
+     * Returns the alarm that fires next, or null when nothing is stored.
+     */
+    public JSObject getNextAlarm() {
+        return index.byTime.first();
+    }
+
+    /**
+     * Returns at most {@code limit} alarms with the earliest fire times, earliest first.
+     */
+    public List<JSObject> getNextAlarms(int limit) {
+        PersistentTree<JSObject> byTime = index.byTime;
+        List<JSObject> result = new ArrayList<>(Math.min(limit, byTime.size()));
+        for (JSObject alarm : byTime) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(alarm);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the alarms whose timestamp lies in [from, to], earliest first.
+     */
+    public List<JSObject> getAlarmsBetween(long from, long to) {
+        if (from > to) {
+            return new ArrayList<>();
+        }
+        List<JSObject> result = new ArrayList<>();
+        Iterator<JSObject> range = index.byTime.iterator(probe(from, Integer.MIN_VALUE), true, probe(to, Integer.MAX_VALUE), true, false);
+        while (range.hasNext()) {
+            result.add(range.next());
+        }
+        return result;
+    }
+
+    /**
+     * Runs a page query against one snapshot of the time index, so a page is
+     * always consistent even while other threads write.
+     */
+    public JSObject query(AlarmQuery query) {
+        return query.execute(index.byTime, this);
     }
 
     public void setAlarms(JSArray alarms) {
-        this.alarms = alarms;
-        saveAlarms();
+        List<JSObject> records = new ArrayList<>();
+        for (int i = 0; i < alarms.length(); i++) {
+            JSObject alarm = toAlarm(alarms.opt(i));
+            if (alarm != null) {
+                records.add(alarm);
+            }
+        }
+
+        Map<Integer, String> payloads = new HashMap<>();
+        records = splitPayloads(records, payloads);
+
+        synchronized (writeLock) {
+            // Replace everything in one write so a crash never leaves a half-swapped store
+            Index current = index;
+            Index next = new Index();
+            Change change = new Change(current.version + 1);
+            for (JSObject alarm : records) {
+                next.put(alarm);
+            }
+            for (JSObject alarm : next.alarms()) {
+                change.put(alarm, current.contains(alarm.optInt("id")));
+            }
+            List<Integer> currentIds = current.ids();
+            for (Integer alarmId : currentIds) {
+                if (!next.contains(alarmId)) {
+                    change.removed.add(alarmId);
+                }
+            }
+            store.write(records, payloads, currentIds);
+            publish(next, change);
+        }
     }
 
-    public void addAlarm(Object alarmObj) {
-        alarms.put(alarmObj);
-        saveAlarms();
+    public void addAlarm(JSObject alarm) {
+        addAlarms(Collections.singletonList(alarm));
     }
 
-    public void clearAlarms() {
-        alarms = new JSArray();
-        saveAlarms();
+    /**
+     * Adds or replaces several alarms with a single store transaction.
+     * Their "data" payloads are stored apart from the records.
+     */
+    public void addAlarms(List<JSObject> alarms) {
+        if (alarms.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> payloads = new HashMap<>();
+        List<JSObject> records = splitPayloads(alarms, payloads);
+
+        synchronized (writeLock) {
+            Index next = index.copy();
+            Change change = new Change(next.version + 1);
+            for (JSObject alarm : records) {
+                change.put(alarm, next.put(alarm) != null);
+            }
+            store.write(records, payloads, Collections.emptyList());
+            publish(next, change);
+        }
     }
 
-    public void removeAlarm(int alarmId) {
-        try {
-            for (int i = 0; i < alarms.length(); i++) {
-                try {
-                    JSONObject item = alarms.getJSONObject(i);
-                    int currentAlarmId = item.getInt("id");
-                    if (currentAlarmId == alarmId) {
-                        alarms.remove(i);
-                        break;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+    /**
+     * Moves alarms to new timestamps and removes others with a single store transaction.
+     */
+    public void updateAlarms(Map<Integer, Long> newTimestamps, Collection<Integer> removedIds) {
+        synchronized (writeLock) {
+            Index next = index.copy();
+            Change change = new Change(next.version + 1);
+
+            for (Map.Entry<Integer, Long> entry : newTimestamps.entrySet()) {
+                JSObject alarm = next.get(entry.getKey());
+                if (alarm == null) {
                     continue;
                 }
+                JSObject moved = withTimestamp(alarm, entry.getValue());
+                next.put(moved);
+                change.updated.add(moved);
             }
-            saveAlarms();
-        } catch (Exception e) {
-            e.printStackTrace();
+
+            for (Integer alarmId : removedIds) {
+                if (next.remove(alarmId) != null) {
+                    change.removed.add(alarmId);
+                }
+            }
+
+            if (change.isEmpty()) {
+                return;
+            }
+            store.write(change.updated, change.removed);
+            publish(next, change);
         }
     }
 
-    private void saveAlarms() {
-        try {
-            SharedPreferences prefs = context.getSharedPreferences("AlarmPrefs", Context.MODE_PRIVATE);
-            prefs.edit().putString("alarms", alarms.toString()).apply();
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Changes some fields of a stored alarm in place, keeping its id. A field
+     * set to JSONObject.NULL is removed, a "data" field replaces the payload.
+     * Returns the new record, or null when no alarm is stored under the id.
+     */
+    public JSObject patchAlarm(int alarmId, JSObject fields) {
+        synchronized (writeLock) {
+            Index next = index.copy();
+            JSObject alarm = next.get(alarmId);
+            if (alarm == null) {
+                return null;
+            }
+
+            JSObject patched = copyOf(alarm, null);
+            Iterator<String> keys = fields.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = fields.opt(key);
+                if (value == JSONObject.NULL && !"data".equals(key)) {
+                    patched.remove(key);
+                } else {
+                    patched.put(key, value);
+                }
+            }
+            patched.put("id", alarmId);
+
+            Map<Integer, String> payloads = new HashMap<>();
+            List<JSObject> records = splitPayloads(Collections.singletonList(patched), payloads);
+            patched = records.get(0);
+
+            next.put(patched);
+            Change change = new Change(next.version + 1);
+            change.updated.add(patched);
+            store.write(records, payloads, Collections.emptyList());
+            publish(next, change);
+            return patched;
+        }
+    }
+
+    /**
+     * Removes every alarm, returns the ids it removed.
+     */
+    public List<Integer> clearAlarms() {
+        synchronized (writeLock) {
+            Index current = index;
+            Change change = new Change(current.version + 1);
+            change.removed.addAll(current.ids());
+            store.clear();
+            publish(new Index(), change);
+            return change.removed;
+        }
+    }
+
+    public void removeAlarm(int alarmId) {
+        updateAlarms(Collections.emptyMap(), Collections.singletonList(alarmId));
+    }
+
+    public void updateAlarmTimeStamp(int alarmId, long newTimestamp){
+        updateAlarms(Collections.singletonMap(alarmId, newTimestamp), Collections.emptyList());
+    }
+
+    /**
+     * Returns the version of the current snapshot. Every write bumps it by one.
+     */
+    public long getVersion() {
+        return index.version;
+    }
+
+    /**
+     * Receives every change right after it is published, in version order.
+     * Called on the writing thread while the write lock is held.
+     */
+    public interface ChangeListener {
+        void onAlarmsChanged(Change change);
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+    }
+
+    /**
+     * Returns everything that changed after {@code version}, merged into one
+     * delta per alarm, or null when that version is no longer covered by the
+     * change log (too old, or from an earlier process) and the caller has to
+     * reload the full list.
+     */
+    public Change getChangesSince(long version) {
+        Index current = index;
+        if (version == current.version) {
+            return new Change(current.version);
+        }
+        if (version > current.version) {
+            return null;
+        }
+
+        Change merged = new Change(current.version);
+        synchronized (changeLog) {
+            Change oldest = changeLog.peekFirst();
+            if (oldest == null || oldest.version > version + 1) {
+                return null;
+            }
+            for (Change change : changeLog) {
+                if (change.version > version && change.version <= current.version) {
+                    merged.merge(change);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The current snapshot as one change that adds every alarm, in insertion
+     * order and without data payloads like every other change. For callers
+     * whose version is no longer covered by the change log.
+     */
+    public Change getSnapshot() {
+        Index current = index;
+        Change snapshot = new Change(current.version);
+        snapshot.added.addAll(current.alarms());
+        return snapshot;
+    }
+
+    /**
+     * Set of alarms added, updated and removed by one write, or by a range of
+     * writes when merged by {@link #getChangesSince(long)}.
+     */
+    public static final class Change {
+        public final long version;
+        public final List<JSObject> added = new ArrayList<>();
+        public final List<JSObject> updated = new ArrayList<>();
+        public final List<Integer> removed = new ArrayList<>();
+
+        Change(long version) {
+            this.version = version;
+        }
+
+        void put(JSObject alarm, boolean existed) {
+            (existed ? updated : added).add(alarm);
+        }
+
+        boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+
+        int size() {
+            return added.size() + updated.size() + removed.size();
+        }
+
+        // Folds a later change into this one so every alarm appears at most once
+        void merge(Change later) {
+            Map<Integer, JSObject> addedById = byId(added);
+            Map<Integer, JSObject> updatedById = byId(updated);
+            Set<Integer> removedIds = new LinkedHashSet<>(removed);
+
+            for (JSObject alarm : later.added) {
+                int alarmId = alarm.optInt("id");
+                if (removedIds.remove(alarmId)) {
+                    // Removed and added again, the caller still holds the old record
+                    updatedById.put(alarmId, alarm);
+                } else {
+                    addedById.put(alarmId, alarm);
+                }
+            }
+            for (JSObject alarm : later.updated) {
+                int alarmId = alarm.optInt("id");
+                if (addedById.containsKey(alarmId)) {
+                    addedById.put(alarmId, alarm);
+                } else {
+                    updatedById.put(alarmId, alarm);
+                }
+            }
+            for (Integer alarmId : later.removed) {
+                updatedById.remove(alarmId);
+                if (addedById.remove(alarmId) == null) {
+                    // Only report removals of alarms the caller has seen
+                    removedIds.add(alarmId);
+                }
+            }
+
+            added.clear();
+            added.addAll(addedById.values());
+            updated.clear();
+            updated.addAll(updatedById.values());
+            removed.clear();
+            removed.addAll(removedIds);
+        }
+
+        public JSObject toJSObject() {
+            JSObject result = new JSObject();
+            result.put("version", version);
+            result.put("added", new JSArray(added));
+            result.put("updated", new JSArray(updated));
+            result.put("removed", new JSArray(removed));
+            return result;
+        }
+
+        private static Map<Integer, JSObject> byId(List<JSObject> alarms) {
+            Map<Integer, JSObject> map = new LinkedHashMap<>();
+            for (JSObject alarm : alarms) {
+                map.put(alarm.optInt("id"), alarm);
+            }
+            return map;
+        }
+    }
+
+    // Records the change and then makes the new snapshot visible, caller holds writeLock
+    private void publish(Index next, Change change) {
+        next.version = change.version;
+        synchronized (changeLog) {
+            changeLog.addLast(change);
+            changeLogSize += change.size();
+            while (changeLogSize > CHANGE_LOG_CAPACITY && changeLog.size() > 1) {
+                changeLogSize -= changeLog.removeFirst().size();
+            }
+        }
+        index = next;
+
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            try {
+                listener.onAlarmsChanged(change);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
-        loadAlarms();
     }
 
     private void loadAlarms() {
+        int maxId = 0;
+        Index loaded = new Index();
         try {
-            SharedPreferences prefs = context.getSharedPreferences("AlarmPrefs", Context.MODE_PRIVATE);
-            String json = prefs.getString("alarms", "[]");
-            alarms = new JSArray(json);
+            List<JSObject> embedded = new ArrayList<>();
+            for (JSObject alarm : store.loadAll()) {
+                if (alarm.has("data")) {
+                    embedded.add(alarm);
+                    continue;
+                }
+                loaded.put(alarm);
+                maxId = Math.max(maxId, alarm.optInt("id"));
+            }
+            idCeiling = store.loadIdCeiling();
+
+            // Records written before payloads were stored apart still carry theirs
+            if (!embedded.isEmpty()) {
+                Map<Integer, String> payloads = new HashMap<>();
+                List<JSObject> records = splitPayloads(embedded, payloads);
+                for (JSObject alarm : records) {
+                    loaded.put(alarm);
+                    maxId = Math.max(maxId, alarm.optInt("id"));
+                }
+                // Moved again on the next load when this write fails
+                store.write(records, payloads, Collections.emptyList());
+            }
         } catch (Exception e) {
-            alarms = new JSArray();
             e.printStackTrace();
         }
+        // Versions start from the load time so a version kept from an earlier
+        // process is never mistaken for one of this process
+        loaded.version = System.currentTimeMillis();
+        index = loaded;
+        // Alarms created before the allocator existed used time based ids
+        nextId = Math.max(Math.max(idCeiling, maxId + 1), 1);
     }
 
-    public void updateAlarmTimeStamp(int alarmId, long newTimestamp){
+    // Published records are shared with readers, so a changed alarm is always a new object
+    private static JSObject withTimestamp(JSObject alarm, long timestamp) {
+        JSObject copy = copyOf(alarm, null);
+        copy.put("timestamp", timestamp);
+        return copy;
+    }
+
+    private static JSObject copyOf(JSObject alarm, String skippedKey) {
+        JSObject copy = new JSObject();
+        Iterator<String> keys = alarm.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!key.equals(skippedKey)) {
+                copy.put(key, alarm.opt(key));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the alarms without their "data" key and collects the payloads
+     * by id. Empty payloads are collected as null so no row is kept for them.
+     */
+    private static List<JSObject> splitPayloads(List<JSObject> alarms, Map<Integer, String> payloads) {
+        List<JSObject> records = new ArrayList<>(alarms.size());
+        for (JSObject alarm : alarms) {
+            if (!alarm.has("data")) {
+                // Leaves a stored payload as it is
+                records.add(alarm);
+                continue;
+            }
+            Object data = alarm.opt("data");
+            String payload = data == null || data == JSONObject.NULL ? null : data.toString();
+            if (payload != null && (payload.isEmpty() || EMPTY_PAYLOAD.equals(payload))) {
+                payload = null;
+            }
+            payloads.put(alarm.optInt("id"), payload);
+            records.add(copyOf(alarm, "data"));
+        }
+        return records;
+    }
+
+    // Search key for the time index, never stored
+    static JSObject probe(long timestamp, int alarmId) {
+        JSObject probe = new JSObject();
+        probe.put("id", alarmId);
+        probe.put("timestamp", timestamp);
+        return probe;
+    }
+
+    private static JSObject toAlarm(Object item) {
         try {
-            for (int i = 0; i < alarms.length(); i++) {
-                try {
-                    JSONObject item = alarms.getJSONObject(i);
-                    int currentAlarmId = item.getInt("id");
-                    if (currentAlarmId == alarmId) {
-                        item.put("timestamp", newTimestamp);
-                        break;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    continue;
-                }
+            if (item instanceof JSObject) {
+                return (JSObject) item;
+            }
+            if (item instanceof JSONObject) {
+                return JSObject.fromJSONObject((JSONObject) item);
             }
-            saveAlarms();
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 }
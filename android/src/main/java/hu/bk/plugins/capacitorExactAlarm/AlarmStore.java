@@ -0,0 +1,64 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistence engine behind {@link AlarmStorage}.
+ * AlarmStorage keeps the in-memory index, the engine only has to load every
+ * record once and apply incremental writes. The data payloads of the alarms
+ * are kept apart from the records and only read on demand.
+ */
+public interface AlarmStore {
+
+    /**
+     * Reads every stored alarm. Called once when AlarmStorage is created.
+     */
+    List<JSObject> loadAll();
+
+    /**
+     * Inserts or replaces the given alarms, stores the given payloads (a null
+     * payload deletes it) and deletes the given ids together with their
+     * payloads, all as one atomic write. Throws when the write fails, nothing
+     * of it is stored then and AlarmStorage keeps its index as it was.
+     */
+    void write(Collection<JSObject> upserts, Map<Integer, String> payloads, Collection<Integer> removals);
+
+    /**
+     * Raw JSON data payload of an alarm, null when it has none.
+     */
+    String loadPayload(int alarmId);
+
+    /**
+     * Payloads of several alarms at once, alarms without one are left out.
+     */
+    Map<Integer, String> loadPayloads(Collection<Integer> alarmIds);
+
+    void clear();
+
+    /**
+     * Highest alarm id reserved so far by AlarmStorage's id allocator, 0 when none.
+     */
+    int loadIdCeiling();
+
+    /**
+     * Persists the id reservation synchronously, ids below it are never handed out again.
+     */
+    void saveIdCeiling(int ceiling);
+
+    default void write(Collection<JSObject> upserts, Collection<Integer> removals) {
+        write(upserts, Collections.emptyMap(), removals);
+    }
+
+    default void put(JSObject alarm) {
+        write(Collections.singletonList(alarm), Collections.emptyList());
+    }
+
+    default void remove(int alarmId) {
+        write(Collections.emptyList(), Collections.singletonList(alarmId));
+    }
+}
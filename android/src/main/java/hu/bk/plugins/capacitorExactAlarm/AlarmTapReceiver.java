@@ -0,0 +1,29 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Target of notification taps while openAppOnTap is off. Records the tap in
+ * the AlarmEventJournal without starting an activity, so neither the WebView
+ * nor the bridge is booted for it. A loaded bridge gets the event right away,
+ * otherwise it is replayed on the next load.
+ */
+public class AlarmTapReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int alarmId = intent.getIntExtra("alarmId", -1);
+        Log.d("AlarmTapReceiver", "Notification tapped. Received alarmId: " + alarmId);
+        if (alarmId == -1) {
+            return;
+        }
+
+        PendingResult pendingResult = goAsync();
+        AlarmEventJournal.publish(context, AlarmEventJournal.EVENT_TAPPED, intent);
+        // Queued behind the journal write, keeps the process alive until the tap is stored
+        AlarmExecutor.executeAsync(pendingResult, () -> { });
+    }
+}
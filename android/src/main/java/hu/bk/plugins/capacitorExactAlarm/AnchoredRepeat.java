@@ -0,0 +1,64 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * Fire times of repeatInterval alarms. Every occurrence sits on the grid
+ * repeatAnchor + k * repeatInterval, so a late delivery never shifts the
+ * occurrences after it.
+ *
+ * When whole slots were missed, e.g. while the device was off or in Doze,
+ * the missedPolicy of the alarm decides what happens: "skip" (default)
+ * continues with the first slot in the future, "fireOnce" rings once right
+ * away for all of them and then continues on the grid.
+ */
+public final class AnchoredRepeat {
+
+    public static final String POLICY_SKIP = "skip";
+    public static final String POLICY_FIRE_ONCE = "fireOnce";
+
+    private AnchoredRepeat() {
+    }
+
+    /**
+     * First slot of the grid strictly after the given time.
+     */
+    public static long slotAfter(long anchor, long interval, long after) {
+        if (after < anchor) {
+            return anchor;
+        }
+        return anchor + ((after - anchor) / interval + 1) * interval;
+    }
+
+    /**
+     * Fire time that follows the occurrence stored in the alarm, which has
+     * just rung: the first slot after both that occurrence and now. The
+     * missedPolicy does not apply here, the slots a late delivery passed
+     * over were covered by the delivery itself.
+     */
+    public static long next(JSObject alarm, long now) {
+        long interval = alarm.optLong("repeatInterval", 0);
+        long fired = alarm.optLong("timestamp");
+        // Alarms stored before anchoring continue on the grid of their last fire time
+        long anchor = alarm.optLong("repeatAnchor", fired);
+        return slotAfter(anchor, interval, Math.max(now, fired));
+    }
+
+    /**
+     * Fire time of an alarm whose stored occurrence has passed without
+     * ringing, e.g. after a reboot. Only here does "fireOnce" ring the
+     * latest missed slot right away.
+     */
+    public static long resume(JSObject alarm, long now) {
+        long interval = alarm.optLong("repeatInterval", 0);
+        long timestamp = alarm.optLong("timestamp");
+        long anchor = alarm.optLong("repeatAnchor", timestamp);
+
+        long upcoming = slotAfter(anchor, interval, now);
+        if (timestamp <= now && POLICY_FIRE_ONCE.equals(alarm.getString("missedPolicy")) && upcoming - interval >= anchor) {
+            // The latest missed slot, AlarmManager delivers it right away
+            return upcoming - interval;
+        }
+        return upcoming;
+    }
+}
@@ -0,0 +1,171 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in milliseconds.
+ *
+ * Values below 32 ms get a bucket each, larger values are bucketed by their
+ * power of two in 16 steps, so a reported percentile is at most about 6%
+ * above the real value. Recording never allocates and can run on any thread.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values of 2^40 ms and more, about 35 years, land in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 5) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long valueMs) {
+        long value = Math.max(0, valueMs);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Smallest recorded value that the given share of all values do not
+     * exceed, rounded up to the end of its bucket. -1 when nothing was recorded.
+     */
+    public long percentile(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public JSObject toJSObject() {
+        JSObject result = new JSObject();
+        long total = count.get();
+        result.put("count", total);
+        if (total > 0) {
+            result.put("mean", sum.get() / total);
+            result.put("p50", percentile(0.50));
+            result.put("p90", percentile(0.90));
+            result.put("p95", percentile(0.95));
+            result.put("p99", percentile(0.99));
+            result.put("max", max.get());
+        }
+        return result;
+    }
+
+    /**
+     * Compact text form for persisting: "sum;max;bucket:count,...", empty
+     * buckets left out.
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(sum.get()).append(';').append(max.get()).append(';');
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = counts.get(i);
+            if (bucketCount == 0) {
+                continue;
+            }
+            if (!first) {
+                builder.append(',');
+            }
+            builder.append(i).append(':').append(bucketCount);
+            first = false;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Adds the values of an encoded histogram to this one. Malformed input
+     * is ignored as a whole.
+     */
+    public void merge(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        String[] parts = encoded.split(";", -1);
+        if (parts.length != 3) {
+            return;
+        }
+        try {
+            long encodedSum = Long.parseLong(parts[0]);
+            long encodedMax = Long.parseLong(parts[1]);
+            long[] decoded = new long[BUCKET_COUNT];
+            long encodedCount = 0;
+            if (!parts[2].isEmpty()) {
+                for (String entry : parts[2].split(",")) {
+                    int separator = entry.indexOf(':');
+                    int bucket = Integer.parseInt(entry.substring(0, separator));
+                    long bucketCount = Long.parseLong(entry.substring(separator + 1));
+                    decoded[bucket] += bucketCount;
+                    encodedCount += bucketCount;
+                }
+            }
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (decoded[i] != 0) {
+                    counts.addAndGet(i, decoded[i]);
+                }
+            }
+            count.addAndGet(encodedCount);
+            sum.addAndGet(encodedSum);
+            max.accumulateAndGet(encodedMax, Math::max);
+        } catch (RuntimeException e) {
+            // Written by another version, start over rather than report garbage
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 5) * SUB_BUCKETS + sub;
+    }
+
+    static long highestOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = 5 + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
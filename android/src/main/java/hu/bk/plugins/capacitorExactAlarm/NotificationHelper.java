@@ -7,144 +7,422 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Bundle;
+import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds and posts the alarm notifications.
+ *
+ * Everything that does not change between alarms is set up once per
+ * process: icon ids are resolved once per name, each channel is created once,
+ * and the stop/snooze/dismiss PendingIntents of an alarm are kept. Builders
+ * are cheap next to those and are created fresh for every post, so no field
+ * of one notification, its "when" time included, carries over to the next.
+ *
+ * Notification ids are derived from the alarm id, so an alarm never has more
+ * than one notification of a kind. Ringing alarms use the alarm id itself,
+ * missed alarms the alarm id under {@link #MISSED_TAG}. Missed alarms are
+ * bundled under one summary that is updated in place, ringing alarms of the
+ * same group under a summary of their group.
+ */
 public class NotificationHelper {
 
-    private static final String CHANNEL_ID = "alarm_channel";
-    private static final String CHANNEL_NAME = "Alarm Notifications";
+    private static final String MISSED_TAG = "missedAlarm";
+    private static final String GROUP_TAG = "alarmGroup";
+    private static final String MISSED_GROUP = "hu.bk.plugins.capacitorExactAlarm.MISSED";
+    // Alarm ids start at 1, so the summary never collides with a missed alarm
+    private static final int MISSED_SUMMARY_ID = 0;
+
+    // Missed alarms of one batch that get a notification of their own, the rest are only counted in the summary
+    private static final int MAX_MISSED_CHILDREN = 8;
+    // Titles listed in the missed summary
+    private static final int MAX_MISSED_LINES = 20;
+
+    private static final String EXTRA_MISSED_TITLES = "hu.bk.plugins.capacitorExactAlarm.missedTitles";
+    private static final String EXTRA_MISSED_COUNT = "hu.bk.plugins.capacitorExactAlarm.missedCount";
+
+    private static final long[] VIBRATION_PATTERN = {0, 500, 250, 500};
+
+    // Action PendingIntents kept for the most recently ringing alarms
+    private static final int MAX_CACHED_ACTIONS = 64;
+
+    // Resolved drawable ids by icon name, "" stands for no icon
+    private static final Map<String, Integer> ICON_IDS = new ConcurrentHashMap<>();
+
+    // Channels created by this process, by id and name so a rename is applied
+    private static final Set<String> CHANNELS = ConcurrentHashMap.newKeySet();
+
+    private static final Map<String, PendingIntent> ACTION_INTENTS = new LinkedHashMap<String, PendingIntent>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PendingIntent> eldest) {
+            return size() > MAX_CACHED_ACTIONS;
+        }
+    };
+
+    // Serializes the read-modify-write of the missed summary
+    private static final Object MISSED_LOCK = new Object();
+
+    /**
+     * Drawable id of a notification icon, the alarm clock icon when the app has none by that name.
+     */
+    static int resolveIcon(Context context, String icon) {
+        String key = icon != null ? icon : "";
+        Integer cached = ICON_IDS.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        int iconId = icon != null
+                ? context.getResources().getIdentifier(icon, "drawable", context.getPackageName())
+                : 0;
+        if (iconId == 0) {
+            // fallback to app icon
+            iconId = android.R.drawable.ic_lock_idle_alarm;
+        }
+        ICON_IDS.put(key, iconId);
+        return iconId;
+    }
 
     public static void createNotificationChannel(Context context) {
+        createNotificationChannel(context, AlarmChannel.DEFAULT);
+    }
+
+    /**
+     * Creates the channel, or renames it when it exists. Android keeps the
+     * importance and vibration it was first created with.
+     */
+    public static void createNotificationChannel(Context context, AlarmChannel alarmChannel) {
+        String key = alarmChannel.id + "\n" + alarmChannel.name;
+        if (CHANNELS.contains(key)) {
+            return;
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationManager notificationManager =
                     (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
             if (notificationManager == null) return;
 
-            NotificationChannel existingChannel = notificationManager.getNotificationChannel(CHANNEL_ID);
-            if (existingChannel != null) return;
-
             NotificationChannel channel = new NotificationChannel(
-                    CHANNEL_ID,
-                    CHANNEL_NAME,
-                    NotificationManager.IMPORTANCE_HIGH
+                    alarmChannel.id,
+                    alarmChannel.name,
+                    alarmChannel.getImportance()
             );
 
-            channel.enableVibration(true);
-            channel.setVibrationPattern(new long[]{0, 500, 250, 500});
+            channel.enableVibration(alarmChannel.vibrate);
+            if (alarmChannel.vibrate) {
+                channel.setVibrationPattern(VIBRATION_PATTERN);
+            }
 
             notificationManager.createNotificationChannel(channel);
         }
+        CHANNELS.add(key);
     }
 
-    public static void showNotification(Context context, String title, String message, String icon ,String data,Integer alarmId ) {
-        int iconId = context.getResources().getIdentifier(icon, "drawable", context.getPackageName());
+    // A builder on the channel, its priority stands in for the importance before Android 8
+    private static NotificationCompat.Builder builder(Context context, AlarmChannel channel) {
+        return new NotificationCompat.Builder(context, channel.id)
+                .setPriority(channel.getPriority());
+    }
 
-        if (iconId == 0) {
-            // fallback to app icon
-            iconId = android.R.drawable.ic_lock_idle_alarm;
+    /**
+     * A PendingIntent that only carries the alarm id, created once per alarm and action.
+     */
+    private static PendingIntent actionIntent(Context context, Class<?> target, String action, int alarmId) {
+        String key = action + ":" + alarmId;
+        synchronized (ACTION_INTENTS) {
+            PendingIntent cached = ACTION_INTENTS.get(key);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        createNotificationChannel(context);
+        Intent intent = new Intent(context, target);
+        intent.setAction(action);
+        intent.putExtra("alarmId", alarmId);
+
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE;
+        PendingIntent pendingIntent = target == AlarmService.class
+                ? PendingIntent.getService(context, alarmId, intent, flags)
+                : PendingIntent.getBroadcast(context, alarmId, intent, flags);
 
-        // Create an explicit intent to your NotificationOpenActivity
-        Intent intent = new Intent(context, NotificationOpenActivity.class);
+        synchronized (ACTION_INTENTS) {
+            ACTION_INTENTS.put(key, pendingIntent);
+        }
+        return pendingIntent;
+    }
 
-        // Pass all the necessary extras
+    /**
+     * What a tap on an alarm notification starts: NotificationOpenActivity,
+     * or with openAppOnTap off a broadcast that only records the tap.
+     */
+    private static PendingIntent tapIntent(Context context, int requestCode, Integer alarmId, String title, String message, String soundName, long timestamp) {
+        boolean openApp = new AlarmConfig(context).getOpenAppOnTap();
+        Intent intent = new Intent(context, openApp ? NotificationOpenActivity.class : AlarmTapReceiver.class);
+        if (openApp) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        }
+        // Signals the tap came from this alarm
+        intent.putExtra("soundName", soundName);
         intent.putExtra("alarmId", alarmId);
         intent.putExtra("title", title);
         intent.putExtra("msg", message);
-        intent.putExtra("data", data);
+        // Identifies the occurrence, taps are journaled per alarm and fire time
+        intent.putExtra("timestamp", timestamp);
 
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-                context,
-                0,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE;
+        if (openApp) {
+            return PendingIntent.getActivity(context, requestCode, intent, flags);
+        }
+        return PendingIntent.getBroadcast(context, requestCode, intent, flags);
+    }
 
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
-                .setSmallIcon(iconId)
+    public static Notification buildServiceNotification(Context context,Integer alarmId,String title,String message,String soundName,String icon,String dismissText,String snoozeText,long snoozeMs,String[] coalescedTitles,long timestamp,AlarmChannel channel,String group) {
+        createNotificationChannel(context, channel);
+
+        Log.d("buildServiceNotification", "alarmId: "+alarmId+" "+title+" "+message);
+
+        // Stops only this alarm, other ringing alarms keep their own notification
+        PendingIntent stopPendingIntent = actionIntent(context, AlarmService.class, "STOP_ALARM", alarmId);
+
+        // Notification click action, its extras change with every fire
+        PendingIntent openAppPendingIntent = tapIntent(context, alarmId, alarmId, title, message, soundName, timestamp);
+
+        // DISMISS (swipe) action
+        PendingIntent dismissPendingIntent = actionIntent(context, AlarmDismissReceiver.class, "ALARM_NOTIFICATION_DISMISSED", alarmId);
+
+        // Silences this alarm and moves it snoozeMs ahead, same path as snoozeAlarm()
+        PendingIntent snoozePendingIntent = snoozeMs > 0
+                ? actionIntent(context, AlarmService.class, "SNOOZE_ALARM", alarmId)
+                : null;
+
+        // Alarms coalesced into this session are listed under the main one
+        NotificationCompat.InboxStyle style = null;
+        int number = 0;
+        if (coalescedTitles != null && coalescedTitles.length > 0) {
+            style = new NotificationCompat.InboxStyle()
+                    .setBigContentTitle(title)
+                    .addLine(message);
+            for (String coalescedTitle : coalescedTitles) {
+                style.addLine(coalescedTitle);
+            }
+            number = coalescedTitles.length + 1;
+        }
+
+        NotificationCompat.Builder builder = builder(context, channel)
                 .setContentTitle(title)
                 .setContentText(message)
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setSmallIcon(resolveIcon(context, icon))
                 .setAutoCancel(true)
-                .setVibrate(new long[]{0, 500, 250, 500})
-                .setContentIntent(pendingIntent);
+                .setOngoing(false)
+                .setContentIntent(openAppPendingIntent)
+                .setDeleteIntent(dismissPendingIntent)
+                .setStyle(style)
+                .setNumber(number)
+                .setGroup(group)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, dismissText, stopPendingIntent);
+
+        if (snoozePendingIntent != null) {
+            builder.addAction(android.R.drawable.ic_popup_reminder, snoozeText != null ? snoozeText : "Snooze", snoozePendingIntent);
+        }
+        return builder.build();
+    }
 
+    /**
+     * Bundles the ringing alarms of a group under one summary notification,
+     * which is removed again when fewer than two of them are left.
+     */
+    public static void showGroupSummary(Context context, String group, List<String> titles, AlarmChannel channel, String icon) {
         NotificationManager notificationManager =
                 (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-        if (notificationManager != null) {
-            notificationManager.notify((int) System.currentTimeMillis(), builder.build());
+        if (notificationManager == null) {
+            return;
+        }
+        if (titles.size() < 2) {
+            notificationManager.cancel(GROUP_TAG, group.hashCode());
+            return;
         }
-    }
 
-    public static Notification buildServiceNotification(Context context,Integer alarmId,String title,String message,String soundName,String data,String icon,String dismissText) {
-        // Intent to stop the alarm service
+        createNotificationChannel(context, channel);
 
-        createNotificationChannel(context);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for (String title : titles) {
+            style.addLine(title);
+        }
 
-        Intent stopIntent = new Intent(context, AlarmService.class);
-        stopIntent.setAction("STOP_ALARM");
+        Notification notification = builder(context, channel)
+                .setSmallIcon(resolveIcon(context, icon))
+                .setContentTitle(titles.get(titles.size() - 1))
+                .setStyle(style)
+                .setNumber(titles.size())
+                .setGroup(group)
+                .setGroupSummary(true)
+                // The alarms themselves alert, the summary only collects them
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                .build();
+        notificationManager.notify(GROUP_TAG, group.hashCode(), notification);
+    }
 
-        Log.d("buildServiceNotification", "alarmId: "+alarmId+" "+title+" "+message);
+    /**
+     * Reports alarms that could not ring, in the order they were due.
+     *
+     * Each alarm gets a notification with an id derived from its alarm id, so
+     * missing the same alarm again updates it in place. As soon as two missed
+     * alarms are shown they are bundled under a single summary that keeps
+     * count of every missed alarm, also of those from earlier calls. A long
+     * batch only posts its newest alarms on their own and lists the rest in
+     * the summary, so restoring many alarms never runs into the per-app
+     * notification limits.
+     */
+    public static void showMissedNotifications(Context context, List<JSObject> missed) {
+        showMissedNotifications(context, missed, false);
+    }
 
-        PendingIntent stopPendingIntent = PendingIntent.getService(
-                context,
-                1,
-                stopIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        // Intent to open the app (Notification click action)
-        Intent openIntent = new Intent(context, NotificationOpenActivity.class);
-        openIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        // Add an extra to the intent to signal the app was opened from this alarm
-        openIntent.putExtra("soundName", soundName);
-        openIntent.putExtra("alarmId", alarmId);
-        openIntent.putExtra("title", title);
-        openIntent.putExtra("msg", message);
-        openIntent.putExtra("data", data);
-
-        int iconId = context.getResources().getIdentifier(icon, "drawable", context.getPackageName());
+    /**
+     * Same as {@link #showMissedNotifications(Context, List)}, with vibrate
+     * set for an alarm that rang unanswered: before Android 8, where the
+     * channel does not decide, its notification vibrates.
+     */
+    public static void showMissedNotifications(Context context, List<JSObject> missed, boolean vibrate) {
+        if (missed.isEmpty()) {
+            return;
+        }
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null) {
+            return;
+        }
 
-        if (iconId == 0) {
-            // fallback to app icon
-            iconId = android.R.drawable.ic_lock_idle_alarm;
+        synchronized (MISSED_LOCK) {
+            // What is still shown from earlier calls, the user may have dismissed part of it
+            List<String> titles = new ArrayList<>();
+            int count = 0;
+            boolean summaryShown = false;
+            for (StatusBarNotification shown : notificationManager.getActiveNotifications()) {
+                if (!MISSED_TAG.equals(shown.getTag())) {
+                    continue;
+                }
+                Bundle extras = shown.getNotification().extras;
+                String[] shownTitles = extras.getStringArray(EXTRA_MISSED_TITLES);
+                if (shown.getId() == MISSED_SUMMARY_ID) {
+                    summaryShown = true;
+                    titles.clear();
+                    if (shownTitles != null) {
+                        titles.addAll(Arrays.asList(shownTitles));
+                    }
+                    count = extras.getInt(EXTRA_MISSED_COUNT);
+                } else if (!summaryShown) {
+                    if (shownTitles != null) {
+                        titles.addAll(Arrays.asList(shownTitles));
+                    }
+                    count++;
+                }
+            }
+
+            for (JSObject alarm : missed) {
+                titles.add(alarm.getString("title", ""));
+            }
+            count += missed.size();
+            if (titles.size() > MAX_MISSED_LINES) {
+                titles = new ArrayList<>(titles.subList(titles.size() - MAX_MISSED_LINES, titles.size()));
+            }
+
+            boolean bundled = count > 1;
+            int first = Math.max(0, missed.size() - MAX_MISSED_CHILDREN);
+            for (int i = first; i < missed.size(); i++) {
+                JSObject alarm = missed.get(i);
+                notificationManager.notify(MISSED_TAG, alarm.optInt("id"), buildMissedNotification(context, alarm, bundled, vibrate));
+            }
+
+            if (bundled) {
+                JSObject newest = missed.get(missed.size() - 1);
+                notificationManager.notify(MISSED_TAG, MISSED_SUMMARY_ID, buildMissedSummary(context, newest, titles, count, vibrate));
+            }
         }
+    }
 
-        PendingIntent openAppPendingIntent = PendingIntent.getActivity(
-                context,
-                alarmId,
-                openIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+    // The channel of a stored alarm, the default one when it can not be read
+    static AlarmChannel storedChannel(JSObject alarm) {
+        JSONObject stored = alarm.optJSONObject("channel");
+        AlarmChannel channel = AlarmChannel.fromStored(stored);
+        if (stored != null && channel == AlarmChannel.DEFAULT) {
+            Log.e("NotificationHelper", "Invalid channel of alarm " + alarm.optInt("id") + ", using the default one");
+        }
+        return channel;
+    }
 
-        // DISMISS (swipe) action
-        Intent dismissIntent = new Intent(context, AlarmDismissReceiver.class);
-        dismissIntent.setAction("ALARM_NOTIFICATION_DISMISSED");
+    // One missed alarm, silent when its summary alerts for it
+    private static Notification buildMissedNotification(Context context, JSObject alarm, boolean bundled, boolean vibrate) {
+        AlarmChannel channel = storedChannel(alarm);
+        createNotificationChannel(context, channel);
 
-        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(
-                context,
-                3,
-                dismissIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+        int alarmId = alarm.optInt("id");
+        String title = alarm.getString("missedText", "Missed Alarm:") + alarm.getString("title", "");
+        String message = alarm.getString("msg");
 
+        PendingIntent pendingIntent = tapIntent(context, alarmId, alarmId, title, message, null, alarm.optLong("timestamp"));
 
+        Bundle extras = new Bundle();
+        extras.putStringArray(EXTRA_MISSED_TITLES, new String[]{alarm.getString("title", "")});
 
-        return new NotificationCompat.Builder(context, CHANNEL_ID)
+        NotificationCompat.Builder builder = builder(context, channel)
+                .setSmallIcon(resolveIcon(context, alarm.getString("icon")))
                 .setContentTitle(title)
                 .setContentText(message)
-                .setSmallIcon(iconId)
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
                 .setAutoCancel(true)
-                .setOngoing(false)
-                .setContentIntent(openAppPendingIntent)
-                .setDeleteIntent(dismissPendingIntent)
-                .addAction(android.R.drawable.ic_menu_close_clear_cancel, dismissText, stopPendingIntent)
-                .build();
+                .setContentIntent(pendingIntent)
+                .setGroup(MISSED_GROUP)
+                .setGroupAlertBehavior(bundled ? NotificationCompat.GROUP_ALERT_SUMMARY : NotificationCompat.GROUP_ALERT_ALL)
+                .setExtras(extras);
+        if (vibrate && channel.vibrate) {
+            builder.setVibrate(VIBRATION_PATTERN);
+        }
+        return builder.build();
+    }
+
+    // The summary over every missed alarm, styled by the newest one
+    private static Notification buildMissedSummary(Context context, JSObject newest, List<String> titles, int count, boolean vibrate) {
+        AlarmChannel channel = storedChannel(newest);
+        createNotificationChannel(context, channel);
+
+        String title = newest.getString("missedText", "Missed Alarm:") + " " + count;
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        for (int i = titles.size() - 1; i >= 0; i--) {
+            style.addLine(titles.get(i));
+        }
+
+        Bundle extras = new Bundle();
+        extras.putStringArray(EXTRA_MISSED_TITLES, titles.toArray(new String[0]));
+        extras.putInt(EXTRA_MISSED_COUNT, count);
+
+        NotificationCompat.Builder builder = builder(context, channel)
+                .setSmallIcon(resolveIcon(context, newest.getString("icon")))
+                .setContentTitle(title)
+                .setContentText(newest.getString("title", ""))
+                .setAutoCancel(true)
+                .setStyle(style)
+                .setNumber(count)
+                .setGroup(MISSED_GROUP)
+                .setGroupSummary(true)
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+                .setExtras(extras);
+        if (vibrate && channel.vibrate) {
+            builder.setVibrate(VIBRATION_PATTERN);
+        }
+        return builder.build();
     }
 }
@@ -8,8 +8,8 @@ import android.util.Log;
 
 /**
  * A simple, transparent activity launched when a user taps the alarm notification.
- * Its job is to communicate the alarmId back to the CapacitorAlarmPlugin
- * via its static instance and then close immediately.
+ * Its job is to record the tap in the AlarmEventJournal, which hands it to the
+ * plugin right away or once the bridge has loaded, and then close immediately.
  */
 public class NotificationOpenActivity extends Activity {
 
@@ -24,24 +24,28 @@ public class NotificationOpenActivity extends Activity {
         String title = intent.getStringExtra("title");
         String msg = intent.getStringExtra("msg");
         String soundName = intent.getStringExtra("soundName");
-        String data = intent.getStringExtra("data");
 
         Log.d(TAG, "Notification tapped. Received alarmId: " + alarmId);
 
-        // 1. Attempt to get the static plugin instance
-        capacitorExactAlarmPlugin plugin = capacitorExactAlarmPlugin.getInstance();
+        // Checked through the journal, the plugin class itself is not loaded here
+        boolean bridgeAttached = AlarmEventJournal.isAttached();
 
-        if (plugin != null && alarmId != -1) {
-            // Case 1: App is running (foreground or background). Plugin instance exists.
-            // Call the public handler method on the main plugin
+        if (alarmId != -1) {
+            // Delivered now when the plugin is loaded, replayed by the plugin otherwise
+            AlarmEventJournal.publish(this, AlarmEventJournal.EVENT_TAPPED, intent);
+        }
+
+        if (bridgeAttached && alarmId != -1) {
+            // Case 1: App is running (foreground or background). The bridge is loaded.
             intent.putExtra("handledByPlugin", true);
-            plugin.handleNotificationTap(intent);
-            Log.d(TAG, "Event sent to plugin via static handler.");
+            Log.d(TAG, "Event sent to plugin via the event journal.");
+        } else if (alarmId != -1 && !new AlarmConfig(this).getOpenAppOnTap()) {
+            // Posted before openAppOnTap was turned off, the tap waits for the next bridge load
+            Log.d(TAG, "Tap journaled, not opening the app.");
         } else if (alarmId != -1) {
-            // Case 2: App is closed (killed). Plugin instance is null.
+            // Case 2: App is closed (killed). No bridge is loaded.
             // We must force the main Capacitor Activity to launch/relaunch
-            // with the notification intent data so the bridge can initialize
-            // and process the intent.
+            // so the bridge can initialize and replay the journaled tap.
 
             Context context = getApplicationContext();
             Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
@@ -55,16 +59,17 @@ public class NotificationOpenActivity extends Activity {
                 launchIntent.putExtra("title", title);
                 launchIntent.putExtra("msg",msg);
                 launchIntent.putExtra("soundName",soundName);
-                launchIntent.putExtra("data",data);
-                launchIntent.putExtra("handledByPlugin", false);
+                launchIntent.putExtra("timestamp", intent.getLongExtra("timestamp", 0));
+                // Already journaled above, load() must not report it a second time
+                launchIntent.putExtra("handledByPlugin", true);
 
                 context.startActivity(launchIntent);
-                Log.d(TAG, "Plugin instance was null. Relaunching main activity with intent.");
+                Log.d(TAG, "No bridge was loaded. Relaunching main activity with intent.");
             } else {
                 Log.e(TAG, "Could not get launch intent for package.");
             }
         } else {
-            Log.e(TAG, "Failed to handle notification tap: Plugin instance is null and alarmId is invalid.");
+            Log.e(TAG, "Failed to handle notification tap: alarmId is invalid.");
         }
 
         // Important: Always finish the activity immediately.
@@ -0,0 +1,304 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted set, an AVL tree with path copying.
+ *
+ * A change returns a new tree that shares every untouched node with the old
+ * one, so a change costs O(log n) however many snapshots readers still hold,
+ * and a snapshot is just a reference. Elements that compare equal replace
+ * each other. Every node knows the size of its subtree, which makes counting
+ * the elements of a range O(log n) as well.
+ */
+final class PersistentTree<E> implements Iterable<E> {
+
+    private static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final int height;
+        final int size;
+
+        Node(E value, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(heightOf(left), heightOf(right));
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+    private final Node<E> root;
+
+    private PersistentTree(Comparator<? super E> comparator, Node<E> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    static <E> PersistentTree<E> empty(Comparator<? super E> comparator) {
+        return new PersistentTree<>(comparator, null);
+    }
+
+    Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    int size() {
+        return sizeOf(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * The element equal to the key, null when there is none.
+     */
+    E get(E key) {
+        Node<E> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(key, node.value);
+            if (cmp == 0) {
+                return node.value;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    E first() {
+        Node<E> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    /**
+     * This tree with the value added, or replacing the element equal to it.
+     */
+    PersistentTree<E> with(E value) {
+        return new PersistentTree<>(comparator, insert(root, value));
+    }
+
+    /**
+     * This tree without the element equal to the key, the same tree when there is none.
+     */
+    PersistentTree<E> without(E key) {
+        Node<E> removed = delete(root, key);
+        return removed == root ? this : new PersistentTree<>(comparator, removed);
+    }
+
+    /**
+     * Number of elements in [from, to].
+     */
+    int count(E from, E to) {
+        if (comparator.compare(from, to) > 0) {
+            return 0;
+        }
+        return countBelow(to, true) - countBelow(from, false);
+    }
+
+    List<E> toList() {
+        List<E> list = new ArrayList<>(size());
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new RangeIterator(null, true, null, true, false);
+    }
+
+    /**
+     * Walks the elements from start to end, in descending order when asked.
+     * A null bound leaves that side open.
+     */
+    Iterator<E> iterator(E start, boolean startInclusive, E end, boolean endInclusive, boolean descending) {
+        return new RangeIterator(start, startInclusive, end, endInclusive, descending);
+    }
+
+    private Node<E> insert(Node<E> node, E value) {
+        if (node == null) {
+            return new Node<>(value, null, null);
+        }
+        int cmp = comparator.compare(value, node.value);
+        if (cmp < 0) {
+            return balance(node.value, insert(node.left, value), node.right);
+        }
+        if (cmp > 0) {
+            return balance(node.value, node.left, insert(node.right, value));
+        }
+        return new Node<>(value, node.left, node.right);
+    }
+
+    private Node<E> delete(Node<E> node, E key) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = comparator.compare(key, node.value);
+        if (cmp < 0) {
+            Node<E> left = delete(node.left, key);
+            return left == node.left ? node : balance(node.value, left, node.right);
+        }
+        if (cmp > 0) {
+            Node<E> right = delete(node.right, key);
+            return right == node.right ? node : balance(node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<E> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.value, node.left, deleteFirst(node.right));
+    }
+
+    private Node<E> deleteFirst(Node<E> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.value, deleteFirst(node.left), node.right);
+    }
+
+    // Elements below the key, or up to and including it
+    private int countBelow(E key, boolean inclusive) {
+        int count = 0;
+        Node<E> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(node.value, key);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                count += sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    // Subtrees of the two sides differ in height by at most two after a single change
+    private static <E> Node<E> balance(E value, Node<E> left, Node<E> right) {
+        int leftHeight = heightOf(left);
+        int rightHeight = heightOf(right);
+        if (leftHeight > rightHeight + 1) {
+            if (heightOf(left.left) >= heightOf(left.right)) {
+                return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+            }
+            Node<E> pivot = left.right;
+            return new Node<>(pivot.value,
+                    new Node<>(left.value, left.left, pivot.left),
+                    new Node<>(value, pivot.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (heightOf(right.right) >= heightOf(right.left)) {
+                return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+            }
+            Node<E> pivot = right.left;
+            return new Node<>(pivot.value,
+                    new Node<>(value, left, pivot.left),
+                    new Node<>(right.value, pivot.right, right.right));
+        }
+        return new Node<>(value, left, right);
+    }
+
+    private static int heightOf(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private final class RangeIterator implements Iterator<E> {
+        private final ArrayDeque<Node<E>> path = new ArrayDeque<>();
+        private final E end;
+        private final boolean endInclusive;
+        private final boolean descending;
+        private E next;
+
+        RangeIterator(E start, boolean startInclusive, E end, boolean endInclusive, boolean descending) {
+            this.end = end;
+            this.endInclusive = endInclusive;
+            this.descending = descending;
+
+            // Keeps the nodes at or after start whose near side is still to be walked
+            Node<E> node = root;
+            while (node != null) {
+                int cmp = start == null ? 1 : order(node.value, start);
+                if (cmp > 0 || (startInclusive && cmp == 0)) {
+                    path.push(node);
+                    node = near(node);
+                } else {
+                    node = far(node);
+                }
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            E value = next;
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            Node<E> node = path.poll();
+            if (node == null) {
+                next = null;
+                return;
+            }
+            if (end != null) {
+                int cmp = order(node.value, end);
+                if (cmp > 0 || (!endInclusive && cmp == 0)) {
+                    path.clear();
+                    next = null;
+                    return;
+                }
+            }
+            next = node.value;
+            for (Node<E> child = far(node); child != null; child = near(child)) {
+                path.push(child);
+            }
+        }
+
+        // Position of a relative to b in walking order
+        private int order(E a, E b) {
+            int cmp = comparator.compare(a, b);
+            return descending ? -cmp : cmp;
+        }
+
+        private Node<E> near(Node<E> node) {
+            return descending ? node.right : node.left;
+        }
+
+        private Node<E> far(Node<E> node) {
+            return descending ? node.left : node.right;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.getcapacitor.JSObject;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SharedPreferences engine, one JSON string per alarm in the AlarmPrefs file.
+ * Also understands the legacy layout where all alarms lived in a single "alarms" array.
+ */
+public class PreferencesAlarmStore implements AlarmStore {
+
+    static final String PREFS_NAME = "AlarmPrefs";
+    // Legacy key: every alarm serialized into a single JSON array string
+    private static final String LEGACY_ALARMS_KEY = "alarms";
+    // One JSON record per alarm, keyed by its id
+    private static final String ALARM_KEY_PREFIX = "alarm_";
+    private static final String ID_CEILING_KEY = "idCeiling";
+    // Raw data payload of an alarm, keyed by its id
+    private static final String PAYLOAD_KEY_PREFIX = "payload_";
+
+    private final SharedPreferences prefs;
+
+    public PreferencesAlarmStore(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public List<JSObject> loadAll() {
+        List<JSObject> alarms = new ArrayList<>();
+        try {
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                if (!entry.getKey().startsWith(ALARM_KEY_PREFIX) || !(entry.getValue() instanceof String)) {
+                    continue;
+                }
+                JSObject alarm = toAlarm((String) entry.getValue());
+                if (alarm != null) {
+                    alarms.add(alarm);
+                }
+            }
+
+            String legacy = prefs.getString(LEGACY_ALARMS_KEY, null);
+            if (legacy != null) {
+                JSONArray items = new JSONArray(legacy);
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.optJSONObject(i);
+                    if (item != null) {
+                        alarms.add(JSObject.fromJSONObject(item));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return alarms;
+    }
+
+    @Override
+    public void write(Collection<JSObject> upserts, Map<Integer, String> payloads, Collection<Integer> removals) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Integer alarmId : removals) {
+            editor.remove(keyFor(alarmId));
+            editor.remove(PAYLOAD_KEY_PREFIX + alarmId);
+        }
+        for (JSObject alarm : upserts) {
+            editor.putString(keyFor(alarm.optInt("id")), alarm.toString());
+        }
+        for (Map.Entry<Integer, String> entry : payloads.entrySet()) {
+            if (entry.getValue() == null) {
+                editor.remove(PAYLOAD_KEY_PREFIX + entry.getKey());
+            } else {
+                editor.putString(PAYLOAD_KEY_PREFIX + entry.getKey(), entry.getValue());
+            }
+        }
+        editor.apply();
+    }
+
+    @Override
+    public String loadPayload(int alarmId) {
+        return prefs.getString(PAYLOAD_KEY_PREFIX + alarmId, null);
+    }
+
+    @Override
+    public Map<Integer, String> loadPayloads(Collection<Integer> alarmIds) {
+        Map<Integer, String> payloads = new HashMap<>();
+        for (Integer alarmId : alarmIds) {
+            String payload = loadPayload(alarmId);
+            if (payload != null) {
+                payloads.put(alarmId, payload);
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * Removes the alarms and their payloads. The id ceiling stays, so ids
+     * still held by stale PendingIntents are never handed out again.
+     */
+    @Override
+    public void clear() {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(ALARM_KEY_PREFIX) || key.startsWith(PAYLOAD_KEY_PREFIX)) {
+                editor.remove(key);
+            }
+        }
+        editor.remove(LEGACY_ALARMS_KEY);
+        editor.apply();
+    }
+
+    @Override
+    public int loadIdCeiling() {
+        return prefs.getInt(ID_CEILING_KEY, 0);
+    }
+
+    @Override
+    public void saveIdCeiling(int ceiling) {
+        prefs.edit().putInt(ID_CEILING_KEY, ceiling).commit();
+    }
+
+    private static JSObject toAlarm(String json) {
+        try {
+            return new JSObject(json);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String keyFor(int alarmId) {
+        return ALARM_KEY_PREFIX + alarmId;
+    }
+}
@@ -0,0 +1,434 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONArray;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Recurrence rule of a calendar alarm, modelled on RFC 5545 RRULE.
+ *
+ * Built from the "calendar" object of an alarm:
+ *
+ * | Field      | RRULE      | Description |
+ * |------------|------------|-------------|
+ * | freq       | FREQ       | "daily", "weekly", "monthly" or "yearly". Inferred from the other fields when missing. |
+ * | interval   | INTERVAL   | Every n-th day / week / month / year, counted from start. |
+ * | byWeekday  | BYDAY      | Weekdays, 1 = Sunday ... 7 = Saturday. |
+ * | byMonthDay | BYMONTHDAY | Days of the month, negative ones count from the end (-1 = last day). |
+ * | byMonth    | BYMONTH    | Months, 1 ... 12. |
+ * | bySetPos   | BYSETPOS   | Picks the n-th matching day of each period, negative ones count from the end. |
+ * | hour, minute, second | BYHOUR, BYMINUTE, BYSECOND | Time of day of every occurrence. |
+ * | count      | COUNT      | Total number of occurrences, counted from start. |
+ * | until      | UNTIL      | Last possible occurrence (epoch ms, inclusive). |
+ * | exclude    | EXDATE     | Occurrences (epoch ms) that are skipped. |
+ * | start      | DTSTART    | Anchor of interval and count (epoch ms). |
+ * | timeZone   | TZID       | Zone the rule is evaluated in, the device zone by default. |
+ *
+ * The single "weekday" and "day" fields of older calendar alarms are read as
+ * byWeekday and byMonthDay. Days that do not exist in a period are skipped as
+ * in RFC 5545, so day 31 only fires in months that have 31 days.
+ *
+ * Instances are immutable and can be shared between threads. Finding the
+ * next occurrence jumps straight to the period holding the start point and
+ * then walks the matching days of each period, so every step costs at most
+ * one period scan. Only count needs the occurrences before the start point,
+ * it is bounded by the count itself.
+ */
+public final class RecurrenceRule {
+
+    public static final int DAILY = 0;
+    public static final int WEEKLY = 1;
+    public static final int MONTHLY = 2;
+    public static final int YEARLY = 3;
+
+    // Gives up on rules that never match, e.g. the 30th of February
+    private static final int MAX_SCANNED_DAYS = 366 * 40;
+    // 1970-01-01 was a Thursday, weeks start on Monday as the RFC 5545 default
+    private static final int EPOCH_WEEK_OFFSET = 3;
+
+    private final int freq;
+    private final int interval;
+    // Bit n set for weekday n (1 = Sunday), month n and day n of the month
+    private final int weekdays;
+    private final int months;
+    private final long monthDays;
+    // Bit n set for day -n of the month
+    private final long lastMonthDays;
+    private final int[] setPositions;
+    private final int hour;
+    private final int minute;
+    private final int second;
+    private final int count;
+    private final long until;
+    // Sorted for binary search
+    private final long[] exclusions;
+    private final long start;
+    private final ZoneId zone;
+
+    private RecurrenceRule(int freq, int interval, int weekdays, int months, long monthDays, long lastMonthDays,
+                           int[] setPositions, int hour, int minute, int second, int count, long until,
+                           long[] exclusions, long start, ZoneId zone) {
+        this.freq = freq;
+        this.interval = interval;
+        this.weekdays = weekdays;
+        this.months = months;
+        this.monthDays = monthDays;
+        this.lastMonthDays = lastMonthDays;
+        this.setPositions = setPositions;
+        this.hour = hour;
+        this.minute = minute;
+        this.second = second;
+        this.count = count;
+        this.until = until;
+        this.exclusions = exclusions;
+        this.start = start;
+        this.zone = zone;
+    }
+
+    /**
+     * Parses the calendar object of an alarm. Throws IllegalArgumentException
+     * with the rejection message when it is unusable.
+     */
+    public static RecurrenceRule fromCalendar(JSObject calendar) {
+        int weekdays = 0;
+        JSONArray byWeekday = calendar.optJSONArray("byWeekday");
+        if (byWeekday != null) {
+            for (int i = 0; i < byWeekday.length(); i++) {
+                weekdays |= bit(byWeekday.optInt(i), 1, 7, "byWeekday");
+            }
+        } else if (calendar.has("weekday")) {
+            weekdays = bit(calendar.optInt("weekday"), 1, 7, "weekday");
+        }
+
+        long monthDays = 0;
+        long lastMonthDays = 0;
+        JSONArray byMonthDay = calendar.optJSONArray("byMonthDay");
+        int[] days = byMonthDay != null ? toInts(byMonthDay)
+                // A legacy weekday alarm ignores its day, as it always did
+                : calendar.has("day") && !calendar.has("weekday") ? new int[]{calendar.optInt("day")} : new int[0];
+        for (int day : days) {
+            if (day == 0 || day < -31 || day > 31) {
+                throw new IllegalArgumentException("Invalid byMonthDay "+day);
+            }
+            if (day > 0) {
+                monthDays |= 1L << day;
+            } else {
+                lastMonthDays |= 1L << -day;
+            }
+        }
+
+        int months = 0;
+        JSONArray byMonth = calendar.optJSONArray("byMonth");
+        if (byMonth != null) {
+            for (int i = 0; i < byMonth.length(); i++) {
+                months |= bit(byMonth.optInt(i), 1, 12, "byMonth");
+            }
+        }
+
+        int[] setPositions = null;
+        JSONArray bySetPos = calendar.optJSONArray("bySetPos");
+        if (bySetPos != null && bySetPos.length() > 0) {
+            setPositions = toInts(bySetPos);
+            for (int position : setPositions) {
+                if (position == 0 || position < -366 || position > 366) {
+                    throw new IllegalArgumentException("Invalid bySetPos "+position);
+                }
+            }
+        }
+
+        int freq;
+        String freqName = calendar.getString("freq");
+        if (freqName == null) {
+            freq = weekdays != 0 ? WEEKLY : days.length > 0 ? MONTHLY : DAILY;
+        } else if ("daily".equals(freqName)) {
+            freq = DAILY;
+        } else if ("weekly".equals(freqName)) {
+            freq = WEEKLY;
+        } else if ("monthly".equals(freqName)) {
+            freq = MONTHLY;
+        } else if ("yearly".equals(freqName)) {
+            freq = YEARLY;
+        } else {
+            throw new IllegalArgumentException("Invalid freq "+freqName);
+        }
+
+        int interval = calendar.optInt("interval", 1);
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval "+interval);
+        }
+        int count = calendar.optInt("count", 0);
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count "+count);
+        }
+
+        int hour = calendar.optInt("hour", -1);
+        int minute = calendar.optInt("minute", -1);
+        int second = calendar.optInt("second", 0);
+        if (hour < -1 || hour > 23 || minute < -1 || minute > 59 || second < 0 || second > 59) {
+            throw new IllegalArgumentException("Invalid time "+hour+":"+minute+":"+second);
+        }
+
+        long[] exclusions = new long[0];
+        JSONArray exclude = calendar.optJSONArray("exclude");
+        if (exclude != null) {
+            exclusions = new long[exclude.length()];
+            for (int i = 0; i < exclusions.length; i++) {
+                exclusions[i] = exclude.optLong(i);
+            }
+            Arrays.sort(exclusions);
+        }
+
+        ZoneId zone;
+        String timeZone = calendar.getString("timeZone");
+        try {
+            zone = timeZone != null ? ZoneId.of(timeZone) : ZoneId.systemDefault();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid timeZone "+timeZone);
+        }
+
+        return new RecurrenceRule(freq, interval, weekdays, months, monthDays, lastMonthDays, setPositions,
+                hour, minute, second, count, calendar.optLong("until", 0), exclusions,
+                calendar.optLong("start", 0), zone);
+    }
+
+    /**
+     * Whether interval or count are counted from the start field, a rule
+     * without it is anchored to the time it is evaluated at.
+     */
+    public boolean needsStart() {
+        return interval > 1 || count > 0;
+    }
+
+    /**
+     * First occurrence strictly after the given time (epoch ms), -1 when the
+     * rule has no occurrence left.
+     */
+    public long next(long after) {
+        return new Occurrences(after).next();
+    }
+
+    /**
+     * Up to limit occurrences strictly after the given time, in order.
+     */
+    public long[] preview(long after, int limit) {
+        long[] occurrences = new long[limit];
+        Occurrences iterator = new Occurrences(after);
+        int found = 0;
+        while (found < limit) {
+            long occurrence = iterator.next();
+            if (occurrence < 0) {
+                break;
+            }
+            occurrences[found++] = occurrence;
+        }
+        return found == limit ? occurrences : Arrays.copyOf(occurrences, found);
+    }
+
+    /**
+     * Walks the occurrences after a point in time. Holds the matching days of
+     * the current period in a reused buffer.
+     */
+    private final class Occurrences {
+        private final long after;
+        private final LocalTime time;
+        // Defaults taken from the anchor, like the parts RFC 5545 takes from DTSTART
+        private final int weekdayMask;
+        private final int monthMask;
+        private final long monthDayMask;
+        private final long lastMonthDayMask;
+
+        private final long[] days = new long[366];
+        private int size;
+        private int position;
+        private long period;
+        private int emitted;
+        private int scannedDays;
+
+        Occurrences(long after) {
+            this.after = after;
+            long anchorMillis = start > 0 ? start : after;
+            ZonedDateTime anchor = Instant.ofEpochMilli(anchorMillis).atZone(zone);
+            this.time = LocalTime.of(hour >= 0 ? hour : anchor.getHour(), minute >= 0 ? minute : anchor.getMinute(), second);
+
+            LocalDate anchorDate = anchor.toLocalDate();
+            boolean hasDays = monthDays != 0 || lastMonthDays != 0;
+            int weekdayMask = weekdays;
+            int monthMask = months;
+            long monthDayMask = monthDays;
+            if (freq == WEEKLY && weekdayMask == 0) {
+                weekdayMask = 1 << weekdayOf(anchorDate.getDayOfWeek());
+            }
+            if ((freq == MONTHLY || freq == YEARLY) && !hasDays && weekdayMask == 0) {
+                monthDayMask = 1L << anchorDate.getDayOfMonth();
+            }
+            if (freq == YEARLY && monthMask == 0 && !hasDays && weekdays == 0) {
+                monthMask = 1 << anchorDate.getMonthValue();
+            }
+            this.weekdayMask = weekdayMask;
+            this.monthMask = monthMask;
+            this.monthDayMask = monthDayMask;
+            this.lastMonthDayMask = lastMonthDays;
+
+            long anchorPeriod = periodOf(anchorDate.toEpochDay());
+            if (count > 0) {
+                // Occurrences before the start point still use up the count
+                period = anchorPeriod;
+            } else {
+                long target = periodOf(Instant.ofEpochMilli(after).atZone(zone).toLocalDate().toEpochDay());
+                period = anchorPeriod + Math.max(0, Math.floorDiv(target - anchorPeriod, interval)) * interval;
+            }
+            fill();
+        }
+
+        long next() {
+            while (true) {
+                while (position < size) {
+                    long occurrence = toMillis(days[position++]);
+                    if (start > 0 && occurrence < start) {
+                        continue;
+                    }
+                    if (until > 0 && occurrence > until) {
+                        return -1;
+                    }
+                    if (count > 0 && ++emitted > count) {
+                        return -1;
+                    }
+                    if (occurrence <= after || Arrays.binarySearch(exclusions, occurrence) >= 0) {
+                        continue;
+                    }
+                    return occurrence;
+                }
+                if (scannedDays > MAX_SCANNED_DAYS) {
+                    return -1;
+                }
+                period += interval;
+                fill();
+            }
+        }
+
+        // Collects the matching days of the current period, in order
+        private void fill() {
+            long first = firstDayOf(period);
+            long end = firstDayOf(period + 1);
+            LocalDate date = LocalDate.ofEpochDay(first);
+            int year = date.getYear();
+            int month = date.getMonthValue();
+            int dayOfMonth = date.getDayOfMonth();
+            int length = date.lengthOfMonth();
+            int weekday = weekdayOf(date.getDayOfWeek());
+
+            size = 0;
+            position = 0;
+            for (long day = first; day < end; day++) {
+                if (matches(month, dayOfMonth, length, weekday)) {
+                    days[size++] = day;
+                }
+                weekday = weekday == 7 ? 1 : weekday + 1;
+                if (++dayOfMonth > length) {
+                    dayOfMonth = 1;
+                    if (++month > 12) {
+                        month = 1;
+                        year++;
+                    }
+                    length = Month.of(month).length(Year.isLeap(year));
+                }
+            }
+            // Only periods without a match in a row count towards the give-up limit
+            scannedDays = size > 0 ? 0 : scannedDays + (int) (end - first);
+
+            if (setPositions != null) {
+                selectPositions();
+            }
+        }
+
+        private boolean matches(int month, int dayOfMonth, int length, int weekday) {
+            if (monthMask != 0 && (monthMask & (1 << month)) == 0) {
+                return false;
+            }
+            if (weekdayMask != 0 && (weekdayMask & (1 << weekday)) == 0) {
+                return false;
+            }
+            if (monthDayMask != 0 || lastMonthDayMask != 0) {
+                return (monthDayMask & (1L << dayOfMonth)) != 0
+                        || (lastMonthDayMask & (1L << (length - dayOfMonth + 1))) != 0;
+            }
+            return true;
+        }
+
+        // Keeps only the days picked by bySetPos, in place
+        private void selectPositions() {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                for (int setPosition : setPositions) {
+                    if ((setPosition > 0 ? setPosition - 1 : size + setPosition) == i) {
+                        days[kept++] = days[i];
+                        break;
+                    }
+                }
+            }
+            size = kept;
+        }
+
+        private long toMillis(long epochDay) {
+            return LocalDate.ofEpochDay(epochDay).atTime(time).atZone(zone).toInstant().toEpochMilli();
+        }
+    }
+
+    private long periodOf(long epochDay) {
+        switch (freq) {
+            case WEEKLY:
+                return Math.floorDiv(epochDay + EPOCH_WEEK_OFFSET, 7);
+            case MONTHLY: {
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                return date.getYear() * 12L + date.getMonthValue() - 1;
+            }
+            case YEARLY:
+                return LocalDate.ofEpochDay(epochDay).getYear();
+            default:
+                return epochDay;
+        }
+    }
+
+    private long firstDayOf(long period) {
+        switch (freq) {
+            case WEEKLY:
+                return period * 7 - EPOCH_WEEK_OFFSET;
+            case MONTHLY:
+                return LocalDate.of((int) Math.floorDiv(period, 12), Math.floorMod(period, 12) + 1, 1).toEpochDay();
+            case YEARLY:
+                return LocalDate.of((int) period, 1, 1).toEpochDay();
+            default:
+                return period;
+        }
+    }
+
+    // 1 = Sunday ... 7 = Saturday, as in the calendar weekday field
+    private static int weekdayOf(DayOfWeek dayOfWeek) {
+        return dayOfWeek.getValue() % 7 + 1;
+    }
+
+    private static int bit(int value, int min, int max, String field) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Invalid "+field+" "+value);
+        }
+        return 1 << value;
+    }
+
+    private static int[] toInts(JSONArray array) {
+        int[] values = new int[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.optInt(i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,259 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite engine with one row per alarm. The id is the primary key and the
+ * fire time has its own index, every write runs in a single transaction.
+ * Data payloads live in their own table as raw JSON text.
+ * The first time the database is created, alarms stored by
+ * {@link PreferencesAlarmStore} are imported and the preferences are cleared.
+ */
+public class SqliteAlarmStore extends SQLiteOpenHelper implements AlarmStore {
+
+    private static final String TAG = "SqliteAlarmStore";
+
+    private static final String DATABASE_NAME = "capacitor_exact_alarm.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String TABLE_ALARMS = "alarms";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_JSON = "json";
+
+    private static final String TABLE_PAYLOADS = "payloads";
+    private static final String COLUMN_DATA = "data";
+    // Keeps IN (...) lists below SQLite's bound parameter limit
+    private static final int MAX_QUERY_ARGS = 500;
+
+    private static final String TABLE_META = "meta";
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_VALUE = "value";
+    private static final String META_ID_CEILING = "idCeiling";
+
+    private final Context context;
+    private boolean migratedFromPreferences = false;
+
+    public SqliteAlarmStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context.getApplicationContext();
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ALARMS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + COLUMN_JSON + " TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX idx_alarms_timestamp ON " + TABLE_ALARMS + " (" + COLUMN_TIMESTAMP + ")");
+        createMetaTable(db);
+        createPayloadsTable(db);
+
+        // onCreate already runs inside a transaction
+        List<JSObject> legacy = new PreferencesAlarmStore(context).loadAll();
+        for (JSObject alarm : legacy) {
+            insert(db, alarm);
+        }
+        migratedFromPreferences = !legacy.isEmpty();
+        Log.d(TAG, "Migrated " + legacy.size() + " alarms from SharedPreferences");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createMetaTable(db);
+        }
+        if (oldVersion < 3) {
+            // Payloads still embedded in the records are moved out by AlarmStorage on load
+            createPayloadsTable(db);
+        }
+    }
+
+    private static void createPayloadsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PAYLOADS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_DATA + " TEXT NOT NULL)");
+    }
+
+    private static void createMetaTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_META + " ("
+                + COLUMN_KEY + " TEXT PRIMARY KEY, "
+                + COLUMN_VALUE + " INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Drop the old copy only after the import has been committed
+        if (migratedFromPreferences) {
+            new PreferencesAlarmStore(context).clear();
+            migratedFromPreferences = false;
+        }
+    }
+
+    @Override
+    public List<JSObject> loadAll() {
+        List<JSObject> alarms = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(
+                TABLE_ALARMS,
+                new String[]{COLUMN_JSON},
+                null,
+                null,
+                null,
+                null,
+                COLUMN_TIMESTAMP + " ASC"
+        );
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    alarms.add(new JSObject(cursor.getString(0)));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return alarms;
+    }
+
+    @Override
+    public void write(Collection<JSObject> upserts, Map<Integer, String> payloads, Collection<Integer> removals) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Integer alarmId : removals) {
+                String[] args = new String[]{String.valueOf(alarmId)};
+                db.delete(TABLE_ALARMS, COLUMN_ID + " = ?", args);
+                db.delete(TABLE_PAYLOADS, COLUMN_ID + " = ?", args);
+            }
+            for (JSObject alarm : upserts) {
+                insert(db, alarm);
+            }
+            for (Map.Entry<Integer, String> entry : payloads.entrySet()) {
+                if (entry.getValue() == null) {
+                    db.delete(TABLE_PAYLOADS, COLUMN_ID + " = ?", new String[]{String.valueOf(entry.getKey())});
+                } else {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_ID, entry.getKey());
+                    values.put(COLUMN_DATA, entry.getValue());
+                    db.replaceOrThrow(TABLE_PAYLOADS, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_ALARMS, null, null);
+            db.delete(TABLE_PAYLOADS, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public String loadPayload(int alarmId) {
+        Cursor cursor = getReadableDatabase().query(
+                TABLE_PAYLOADS,
+                new String[]{COLUMN_DATA},
+                COLUMN_ID + " = ?",
+                new String[]{String.valueOf(alarmId)},
+                null,
+                null,
+                null
+        );
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Map<Integer, String> loadPayloads(Collection<Integer> alarmIds) {
+        Map<Integer, String> payloads = new HashMap<>();
+        List<Integer> ids = new ArrayList<>(alarmIds);
+        for (int start = 0; start < ids.size(); start += MAX_QUERY_ARGS) {
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_ARGS));
+            StringBuilder placeholders = new StringBuilder();
+            String[] args = new String[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+                args[i] = String.valueOf(chunk.get(i));
+            }
+            Cursor cursor = getReadableDatabase().query(
+                    TABLE_PAYLOADS,
+                    new String[]{COLUMN_ID, COLUMN_DATA},
+                    COLUMN_ID + " IN (" + placeholders + ")",
+                    args,
+                    null,
+                    null,
+                    null
+            );
+            try {
+                while (cursor.moveToNext()) {
+                    payloads.put(cursor.getInt(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return payloads;
+    }
+
+    @Override
+    public int loadIdCeiling() {
+        Cursor cursor = getReadableDatabase().query(
+                TABLE_META,
+                new String[]{COLUMN_VALUE},
+                COLUMN_KEY + " = ?",
+                new String[]{META_ID_CEILING},
+                null,
+                null,
+                null
+        );
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void saveIdCeiling(int ceiling) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KEY, META_ID_CEILING);
+        values.put(COLUMN_VALUE, ceiling);
+        getWritableDatabase().insertWithOnConflict(TABLE_META, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static void insert(SQLiteDatabase db, JSObject alarm) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, alarm.optInt("id"));
+        values.put(COLUMN_TIMESTAMP, alarm.optLong("timestamp"));
+        values.put(COLUMN_JSON, alarm.toString());
+        // Throws rather than returning -1, a failed row fails the whole write
+        db.replaceOrThrow(TABLE_ALARMS, null, values);
+    }
+}
@@ -3,17 +3,14 @@ package hu.bk.plugins.capacitorExactAlarm;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.Settings;
 import android.util.Log;
-import android.content.BroadcastReceiver;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -29,27 +26,52 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 
 import org.json.JSONObject;
 
-import java.util.Calendar;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @CapacitorPlugin(name = "capacitorAlarm")
 public class capacitorExactAlarmPlugin extends Plugin {
 
     private static capacitorExactAlarmPlugin instance;
-    private BroadcastReceiver alarmReceiver;
+
+    private static final int MAX_PREVIEW_OCCURRENCES = 1000;
 
     private AlarmStorage alarmStorage;
+    private AlarmScheduler alarmScheduler;
 
     private PluginCall currentCall;
 
     private ActivityResultLauncher<Intent> soundPickerLauncher;
 
+    // Hands events to the web view, attached to the journal only while this bridge is loaded
+    private final AlarmEventJournal.Listener eventListener = new AlarmEventJournal.Listener() {
+        @Override
+        public void onEvent(AlarmEvent event) {
+            // Kept until a listener consumes it, so events replayed before the app registered its listeners are not lost
+            notifyListeners(event.type, event.toEvent(), true);
+        }
+
+        @Override
+        public void onTransientEvent(String type, JSObject payload) {
+            notifyListeners(type, payload);
+        }
+    };
+
     @Override
     public void load() {
         super.load();
         instance = this;
         alarmStorage = AlarmStorage.getInstance(getContext());
+        alarmScheduler = new AlarmScheduler(getContext());
+        // Native reschedules and removals reach the web layer as deltas
+        alarmStorage.setChangeListener(change -> notifyListeners("alarmsChanged", change.toJSObject()));
         setActivity();
-        setUpAlarmBroadcast();
 
         Intent launchIntent = getActivity().getIntent();
         if (launchIntent != null && launchIntent.hasExtra("alarmId") &&
@@ -61,74 +83,32 @@ public class capacitorExactAlarmPlugin extends Plugin {
                 handleNotificationTap(launchIntent);
             }
         }
+
+        // Events raised while the bridge was not attached
+        AlarmEventJournal.attach(getContext(), eventListener);
     }
 
     public void handleNotificationTap(Intent intent) {
-        int alarmId = intent.getIntExtra("alarmId", -1);
-        String title = intent.getStringExtra("title");
-        String msg = intent.getStringExtra("msg");
-        String soundName = intent.getStringExtra("soundName");
-        String data = intent.getStringExtra("data");
-
-        JSObject ret = new JSObject();
-        ret.put("alarmId", alarmId);
-        ret.put("title", title);
-        ret.put("msg", msg);
-        ret.put("soundName", soundName);
-
-        if (data == null || data.length() == 0) {
-            ret.put("data",new JSONObject());
-        } else {
-            try {
-                ret.put("data",new JSONObject(data));
-            }catch (Exception e){
-                Log.e("handleNotificationTap", "invalid JSON" );
-            }
-        }
-
-        Log.d("handleNotificationTap", "alarmId: "+alarmId);
+        Log.d("handleNotificationTap", "alarmId: "+intent.getIntExtra("alarmId", -1));
         // Emit the event to the web view. The web side must listen for 'alarmNotificationTapped'.
-        notifyListeners("alarmNotificationTapped", ret,true);
+        AlarmEventJournal.publish(getContext(), AlarmEventJournal.EVENT_TAPPED, intent);
+    }
 
+    @Override
+    protected void handleOnDestroy() {
+        alarmStorage.setChangeListener(null);
+        // Later events wait in the journal for the next bridge
+        AlarmEventJournal.detach(eventListener);
+        if (instance == this) {
+            instance = null;
+        }
+        super.handleOnDestroy();
     }
 
     public static capacitorExactAlarmPlugin getInstance() {
         return instance;
     }
 
-    public void setUpAlarmBroadcast(){
-        alarmReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                JSObject data = new JSObject();
-                data.put("alarmId", intent.getIntExtra("alarmId", -1));
-                data.put("title", intent.getStringExtra("title"));
-                data.put("msg", intent.getStringExtra("msg"));
-                data.put("soundName", intent.getStringExtra("soundName"));
-                data.put("timestamp", intent.getLongExtra("timestamp", 0));
-
-                if (data == null || data.length() == 0) {
-                    data.put("data",new JSONObject());
-                } else {
-                    try {
-                        data.put("data",new JSONObject(intent.getStringExtra("data")));
-                    }catch (Exception e){
-                        Log.e("handleNotificationTap", "invalid JSON" );
-                    }
-                }
-
-                notifyListeners("alarmTriggered", data);
-            }
-        };
-
-        IntentFilter filter = new IntentFilter("CAPACITOR_ALARM_EVENT");
-        Context context = getContext();
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
-            context.registerReceiver(alarmReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-        }
-
-    }
-
     public void setActivity(){
         soundPickerLauncher =
         bridge.registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
@@ -149,31 +129,138 @@ public class capacitorExactAlarmPlugin extends Plugin {
 
     @PluginMethod
     public void setAlarm(PluginCall call) {
-
-        long timestamp = call.getLong("timestamp", 0L);
-        long repeatInterval = call.getDouble("repeatInterval", 0.0).longValue();
         Log.d("setAlarm",  "call params: " + call.getData().toString());
-        String title = call.getString("title", "Alarm");
-        String msg = call.getString("msg", "Time’s up!");
-        String soundName = call.getString("soundName");
-        JSObject dataObject = call.getObject("data");
-        String icon = call.getString("icon");
-        String dismissText = call.getString("dismissText","Dismiss");
-        String missedText = call.getString("missedText","Missed Alarm:");
-        JSObject calendarObj = call.getObject("calendar");
 
-        Log.d("setAlarm", "calendar!" + timestamp);
+        JSObject alarmData;
+        try {
+            alarmData = buildAlarm(call.getData(), System.currentTimeMillis(),
+                    new AlarmConfig(getContext()).getMaxDataBytes(), new HashMap<>());
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        // Short bundled sounds are decoded now, not while the alarm is firing
+        AlarmPlayer.preload(getContext(), Uri.parse(alarmData.getString("resolvedSound")));
+
+        try {
+            alarmStorage.addAlarm(alarmData);
+        } catch (RuntimeException e) {
+            call.reject("Could not store the alarm", e);
+            return;
+        }
+        alarmScheduler.onAlarmsAdded(Collections.singletonList(alarmData));
+
+        JSObject result = new JSObject();
+            result.put("id", alarmData.getInteger("id"));
+            result.put("timestamp", alarmData.optLong("timestamp"));
+            result.put("title", alarmData.getString("title"));
+            result.put("msg", alarmData.getString("msg"));
+            result.put("soundName", alarmData.getString("soundName"));
+            result.put("data", alarmData.getString("data"));
+        call.resolve(result);
+
+        Log.d("setAlarm", "Alarm set!"+alarmData.optLong("timestamp"));
+    }
 
+    @PluginMethod
+    public void setAlarms(PluginCall call) {
+        JSArray items = call.getArray("alarms");
+        if (items == null) {
+            call.reject("Missing alarms array");
+            return;
+        }
 
         long currentTimestamp = System.currentTimeMillis();
+        int maxDataBytes = new AlarmConfig(getContext()).getMaxDataBytes();
+        // Alarms of a batch mostly share a sound, each one is probed once
+        Map<String, Uri> resolvedSounds = new HashMap<>();
+        List<JSObject> accepted = new ArrayList<>();
+        Set<Integer> acceptedIds = new HashSet<>();
+        JSArray results = new JSArray();
+
+        // Validate everything first so a bad entry never leaves a half-armed batch behind
+        for (int i = 0; i < items.length(); i++) {
+            JSObject itemResult = new JSObject();
+            itemResult.put("index", i);
+            try {
+                JSONObject options = items.getJSONObject(i);
+                if (options.has("id") && acceptedIds.contains(options.optInt("id"))) {
+                    throw new IllegalArgumentException("Duplicate alarm id "+options.optInt("id"));
+                }
+                JSObject alarmData = buildAlarm(JSObject.fromJSONObject(options), currentTimestamp, maxDataBytes, resolvedSounds);
+                accepted.add(alarmData);
+                acceptedIds.add(alarmData.getInteger("id"));
+                itemResult.put("success", true);
+                itemResult.put("alarm", alarmData);
+            } catch (IllegalArgumentException e) {
+                itemResult.put("success", false);
+                itemResult.put("error", e.getMessage());
+            } catch (Exception e) {
+                itemResult.put("success", false);
+                itemResult.put("error", "Invalid alarm at index " + i);
+            }
+            results.put(itemResult);
+        }
+
+        try {
+            alarmStorage.addAlarms(accepted);
+        } catch (RuntimeException e) {
+            call.reject("Could not store the alarms", e);
+            return;
+        }
+        alarmScheduler.onAlarmsAdded(accepted);
+
+        // Only the sound that rings first is decoded ahead, the rest load when they play
+        JSObject earliest = null;
+        for (JSObject alarmData : accepted) {
+            if (earliest == null || alarmData.optLong("timestamp") < earliest.optLong("timestamp")) {
+                earliest = alarmData;
+            }
+        }
+        if (earliest != null) {
+            AlarmPlayer.preload(getContext(), Uri.parse(earliest.getString("resolvedSound")));
+        }
+
+        Log.d("setAlarms", "Alarms set: " + accepted.size() + "/" + items.length());
 
+        JSObject result = new JSObject();
+        result.put("results", results);
+        call.resolve(result);
+    }
+
+    /**
+     * Validates the setAlarm options and turns them into the record kept in AlarmStorage.
+     * Throws IllegalArgumentException with the rejection message when the options are unusable.
+     * Sounds are resolved through resolvedSounds, shared by the alarms of one call.
+     */
+    private JSObject buildAlarm(JSObject options, long currentTimestamp, int maxDataBytes, Map<String, Uri> resolvedSounds) {
+
+        long timestamp = options.optLong("timestamp", 0L);
+        long repeatInterval = (long) options.optDouble("repeatInterval", 0.0);
+        String title = options.getString("title", "Alarm");
+        String msg = options.getString("msg", "Time’s up!");
+        String soundName = options.getString("soundName");
+        JSObject dataObject = options.getJSObject("data");
+        String icon = options.getString("icon");
+        String dismissText = options.getString("dismissText","Dismiss");
+        String snoozeText = options.getString("snoozeText","Snooze");
+        String missedText = options.getString("missedText","Missed Alarm:");
+        JSObject channelObj = options.getJSObject("channel");
+        String group = options.getString("group");
+        JSObject calendarObj = options.getJSObject("calendar");
+        String missedPolicy = parseMissedPolicy(options);
+
+        long repeatAnchor = 0;
         if (repeatInterval > 0) {
             Log.d("setAlarm", "repeatInterval!" + repeatInterval);
-            timestamp = currentTimestamp + repeatInterval;
+            // The given timestamp is the first slot, without one the first slot is an interval from now
+            repeatAnchor = timestamp > 0 ? timestamp : currentTimestamp + repeatInterval;
+            timestamp = AnchoredRepeat.slotAfter(repeatAnchor, repeatInterval, currentTimestamp);
         }
 
         if (calendarObj != null) {
-            timestamp = computeNextCalendarTimestamp(calendarObj);
+            calendarObj = anchorCalendar(calendarObj, currentTimestamp);
+            timestamp = nextCalendarTimestamp(calendarObj, currentTimestamp);
             Log.d("setAlarm", "calendar!" + timestamp);
         }
 
@@ -182,214 +269,444 @@ public class capacitorExactAlarmPlugin extends Plugin {
             data = dataObject.toString();
         }
 
+        if (data.getBytes(StandardCharsets.UTF_8).length > maxDataBytes) {
+            throw new IllegalArgumentException("data exceeds maxDataBytes ("+maxDataBytes+")");
+        }
 
         if (timestamp <= 0) {
-            call.reject("Invalid timestamp: "+timestamp);
-            return;
+            throw new IllegalArgumentException("Invalid timestamp: "+timestamp);
         }
 
-
         if (timestamp <= currentTimestamp) {
-            call.reject("expired timestamp");
-            return;
+            throw new IllegalArgumentException("expired timestamp");
         }
 
-        int alarmId = (int) (System.currentTimeMillis() & 0xfffffff);
-
-        Context context = getContext();
-
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(context, AlarmReceiver.class);
-        intent.setAction("ALARM_" + alarmId);
-        intent.putExtra("soundName", soundName);
-        intent.putExtra("alarmId", alarmId);
-        intent.putExtra("title", title);
-        intent.putExtra("msg", msg);
-        intent.putExtra("data", data);
-        intent.putExtra("icon", icon);
-        intent.putExtra("dismissText", dismissText);
-        intent.putExtra("missedText", missedText);
-
-        if (calendarObj != null) {
-            intent.putExtra("calendar", calendarObj.toString());
-        }
-
-        if (repeatInterval > 0) {
-            intent.putExtra("repeatInterval", repeatInterval);
+        // Callers may pass a stable id of their own, scheduling it again replaces the alarm
+        int alarmId;
+        if (options.has("id")) {
+            alarmId = options.optInt("id", -1);
+            if (alarmId <= 0 || alarmId > AlarmStorage.MAX_ALARM_ID) {
+                throw new IllegalArgumentException("Invalid alarm id "+alarmId);
+            }
+            alarmStorage.reserveId(alarmId);
+        } else {
+            alarmId = alarmStorage.allocateId();
         }
 
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                alarmId,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        alarmManager.setExactAndAllowWhileIdle(
-                AlarmManager.RTC_WAKEUP,
-                timestamp,
-                pendingIntent
-        );
-
         JSObject alarmData = new JSObject();
         alarmData.put("id", alarmId);
         alarmData.put("timestamp", timestamp);
         alarmData.put("title", title);
         alarmData.put("msg", msg);
         alarmData.put("soundName", soundName);
+        // Probed once here so the firing path can play it without touching the media provider
+        Uri resolvedSound = resolvedSounds.get(soundName);
+        if (resolvedSound == null) {
+            resolvedSound = AlarmSoundResolver.resolve(getContext(), soundName);
+            resolvedSounds.put(soundName, resolvedSound);
+        }
+        alarmData.put("resolvedSound", resolvedSound.toString());
         alarmData.put("data", data);
+        alarmData.put("icon", icon);
+        alarmData.put("dismissText", dismissText);
+        alarmData.put("snoozeText", snoozeText);
+        alarmData.put("missedText", missedText);
 
+        if (channelObj != null) {
+            alarmData.put("channel", AlarmChannel.fromOptions(channelObj).toJSObject());
+        }
 
-        alarmStorage.addAlarm(alarmData);
+        if (group != null) {
+            alarmData.put("group", group);
+        }
 
-        JSObject result = new JSObject();
-            result.put("id", alarmId);
-            result.put("timestamp", timestamp);
-            result.put("title", title);
-            result.put("msg", msg);
-            result.put("soundName", soundName);
-            result.put("data", data);
-        call.resolve(result);
+        if (calendarObj != null) {
+            alarmData.put("calendar", calendarObj);
+        }
 
-        Log.d("setAlarm", "Alarm set!"+timestamp);
+        if (repeatInterval > 0) {
+            alarmData.put("repeatInterval", repeatInterval);
+            alarmData.put("repeatAnchor", repeatAnchor);
+        }
+
+        if (missedPolicy != null) {
+            alarmData.put("missedPolicy", missedPolicy);
+        }
+        return alarmData;
     }
 
-    public static long computeNextCalendarTimestamp(JSObject calObj) {
+    /**
+     * Validates the updateAlarm options against the stored alarm and returns
+     * only the fields that change. A calendar schedule sets its own fire time.
+     * Throws IllegalArgumentException with the rejection message when they are unusable.
+     */
+    private JSObject buildPatch(JSObject options, JSObject current, long currentTimestamp) {
+        int maxDataBytes = new AlarmConfig(getContext()).getMaxDataBytes();
+        JSObject patch = buildPatch(options, current, currentTimestamp, maxDataBytes);
+        if (patch.has("soundName")) {
+            // Probed here, like in setAlarm, so the firing path never touches the media provider
+            Uri resolvedSound = AlarmSoundResolver.resolve(getContext(), options.getString("soundName"));
+            patch.put("resolvedSound", resolvedSound.toString());
+            AlarmPlayer.preload(getContext(), resolvedSound);
+        }
+        return patch;
+    }
 
-        Calendar c = Calendar.getInstance();
+    // Everything of buildPatch that needs no context, the sound is compared but not resolved
+    static JSObject buildPatch(JSObject options, JSObject current, long currentTimestamp, int maxDataBytes) {
+        JSObject patch = new JSObject();
 
-        boolean hasWeekday = calObj.has("weekday");
-        boolean hasDay = calObj.has("day");
+        String[] textFields = {"title", "msg", "icon", "dismissText", "snoozeText", "missedText", "group"};
+        for (String field : textFields) {
+            if (options.has(field)) {
+                String value = options.getString(field);
+                if (value == null ? current.has(field) : !value.equals(current.getString(field))) {
+                    patch.put(field, value != null ? value : JSONObject.NULL);
+                }
+            }
+        }
 
-        // Base: today’s date
-        c.set(Calendar.SECOND, calObj.getInteger("second", 0));
-        c.set(Calendar.MILLISECOND, 0);
+        if (options.has("channel")) {
+            JSObject channelObj = options.getJSObject("channel");
+            if (channelObj != null) {
+                patch.put("channel", AlarmChannel.fromOptions(channelObj).toJSObject());
+            } else if (current.has("channel")) {
+                patch.put("channel", JSONObject.NULL);
+            }
+        }
 
-        if (calObj.has("hour")) c.set(Calendar.HOUR_OF_DAY, calObj.getInteger("hour"));
-        if (calObj.has("minute")) c.set(Calendar.MINUTE, calObj.getInteger("minute"));
+        if (options.has("soundName")) {
+            String soundName = options.getString("soundName");
+            if (soundName == null ? current.has("soundName") : !soundName.equals(current.getString("soundName"))) {
+                patch.put("soundName", soundName != null ? soundName : JSONObject.NULL);
+            }
+        }
 
-        // Weekly recurrence (weekday: 1–7, where 1 = Sunday or use ISO if you prefer)
-        if (hasWeekday) {
-            int targetDay = calObj.getInteger("weekday");
-            c.set(Calendar.DAY_OF_WEEK, targetDay);
+        if (options.has("data")) {
+            JSObject dataObject = options.getJSObject("data");
+            String data = dataObject != null ? dataObject.toString() : "{}";
+            if (data.getBytes(StandardCharsets.UTF_8).length > maxDataBytes) {
+                throw new IllegalArgumentException("data exceeds maxDataBytes ("+maxDataBytes+")");
+            }
+            patch.put("data", data);
+        }
 
-            // If time has passed today, go to next week
-            if (c.getTimeInMillis() <= System.currentTimeMillis()) {
-                c.add(Calendar.WEEK_OF_YEAR, 1);
+        if (options.has("repeatInterval")) {
+            long repeatInterval = (long) options.optDouble("repeatInterval", 0.0);
+            patch.put("repeatInterval", repeatInterval > 0 ? (Object) repeatInterval : JSONObject.NULL);
+        }
+
+        if (options.has("timestamp")) {
+            long timestamp = options.optLong("timestamp", 0L);
+            if (timestamp <= 0) {
+                throw new IllegalArgumentException("Invalid timestamp: "+timestamp);
+            }
+            if (timestamp <= currentTimestamp) {
+                throw new IllegalArgumentException("expired timestamp");
             }
-            return c.getTimeInMillis();
+            patch.put("timestamp", timestamp);
         }
 
-        // Monthly recurrence
-        if (hasDay) {
-            int targetDay = calObj.getInteger("day");
-            c.set(Calendar.DAY_OF_MONTH, targetDay);
+        if (options.has("calendar")) {
+            JSObject calendarObj = options.getJSObject("calendar");
+            if (calendarObj != null) {
+                calendarObj = anchorCalendar(calendarObj, currentTimestamp);
+                patch.put("calendar", calendarObj);
+                patch.put("timestamp", nextCalendarTimestamp(calendarObj, currentTimestamp));
+            } else {
+                patch.put("calendar", JSONObject.NULL);
+            }
+        }
+
+        if (patch.has("timestamp") && patch.optLong("timestamp") == current.optLong("timestamp")) {
+            patch.remove("timestamp");
+        }
 
-            if (c.getTimeInMillis() <= System.currentTimeMillis()) {
-                c.add(Calendar.MONTH, 1);
+        // A new interval or fire time starts a new grid of repeat slots
+        if (patch.has("repeatInterval") || patch.has("timestamp")) {
+            long repeatInterval = patch.has("repeatInterval")
+                    ? patch.optLong("repeatInterval", 0) : current.optLong("repeatInterval", 0);
+            if (repeatInterval > 0) {
+                patch.put("repeatAnchor", patch.has("timestamp") ? patch.optLong("timestamp") : current.optLong("timestamp"));
+            } else if (current.has("repeatAnchor")) {
+                patch.put("repeatAnchor", JSONObject.NULL);
             }
-            return c.getTimeInMillis();
         }
 
-        // Daily recurrence
-        if (c.getTimeInMillis() <= System.currentTimeMillis()) {
-            c.add(Calendar.DAY_OF_YEAR, 1);
+        if (options.has("missedPolicy")) {
+            String missedPolicy = parseMissedPolicy(options);
+            patch.put("missedPolicy", missedPolicy != null ? missedPolicy : JSONObject.NULL);
+        }
+        return patch;
+    }
+
+    private static String parseMissedPolicy(JSObject options) {
+        String missedPolicy = options.getString("missedPolicy");
+        if (missedPolicy != null && !AnchoredRepeat.POLICY_SKIP.equals(missedPolicy)
+                && !AnchoredRepeat.POLICY_FIRE_ONCE.equals(missedPolicy)) {
+            throw new IllegalArgumentException("Invalid missedPolicy "+missedPolicy);
+        }
+        return missedPolicy;
+    }
+
+    // A rule counting intervals or occurrences is anchored to the time it was set
+    private static JSObject anchorCalendar(JSObject calendarObj, long currentTimestamp) {
+        if (!calendarObj.has("start") && RecurrenceRule.fromCalendar(calendarObj).needsStart()) {
+            calendarObj.put("start", currentTimestamp);
         }
-        return c.getTimeInMillis();
+        return calendarObj;
     }
 
+    private static long nextCalendarTimestamp(JSObject calendarObj, long currentTimestamp) {
+        long next = RecurrenceRule.fromCalendar(calendarObj).next(currentTimestamp);
+        if (next < 0) {
+            throw new IllegalArgumentException("calendar has no upcoming occurrence");
+        }
+        return next;
+    }
 
+    /**
+     * Lists the next occurrences of a calendar rule without scheduling
+     * anything, so the app can show them as they will fire.
+     */
     @PluginMethod
-    public void cancelAllAlarm(PluginCall call){
-        Context context = getContext();
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    public void previewOccurrences(PluginCall call) {
+        JSObject rule = call.getObject("rule");
+        int count = call.getInt("count", 10);
+        long from = call.getLong("from", System.currentTimeMillis());
+        if (rule == null) {
+            call.reject("Missing rule");
+            return;
+        }
+        if (count <= 0 || count > MAX_PREVIEW_OCCURRENCES) {
+            call.reject("Invalid count "+count);
+            return;
+        }
 
-        JSArray alarms = alarmStorage.getAlarms();
+        long[] occurrences;
+        try {
+            occurrences = RecurrenceRule.fromCalendar(rule).preview(from, count);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
 
-        for (int i = 0; i < alarms.length(); i++) {
+        JSArray list = new JSArray();
+        for (long occurrence : occurrences) {
+            list.put(occurrence);
+        }
+        JSObject result = new JSObject();
+        result.put("occurrences", list);
+        call.resolve(result);
+    }
 
-            try {
-                Object item = alarms.get(i); // may throw JSONException
-                if (item instanceof JSObject) {
-                    JSObject obj = (JSObject) item;
-                    int alarmId = obj.optInt("id");
-
-                    Intent intent = new Intent(context, AlarmReceiver.class);
-                    intent.setAction("ALARM_" + alarmId);
-                    intent.putExtra("alarmId", alarmId);
-
-                    PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                            context,
-                            alarmId,
-                            intent,
-                            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-                    );
-
-                    // Cancel the alarm
-                    alarmManager.cancel(pendingIntent);
-                }
-            } catch (Exception e) {
-                // Skip any invalid items
-                e.printStackTrace();
-                continue;
-            }
+    @PluginMethod
+    public void cancelAllAlarm(PluginCall call){
+        List<Integer> alarmIds;
+        try {
+            alarmIds = alarmStorage.clearAlarms();
+        } catch (RuntimeException e) {
+            call.reject("Could not remove the alarms", e);
+            return;
+        }
+        // Cancel the alarms
+        alarmScheduler.onAllAlarmsRemoved(alarmIds);
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void cancelAlarm(PluginCall call){
+        int alarmId = call.getInt("alarmId", -1);
+        if (alarmId == -1) {
+            call.reject("Invalid alarm id "+alarmId);
+            return;
         }
 
         try {
-            alarms = new JSArray("[]");
-        } catch (Exception e) {
-            e.printStackTrace();
+            alarmStorage.removeAlarm(alarmId);
+        } catch (RuntimeException e) {
+            call.reject("Could not remove the alarm", e);
+            return;
         }
 
-        alarmStorage.clearAlarms();
+        // Cancel the alarm, in queue mode the next one moves up
+        alarmScheduler.onAlarmRemoved(alarmId);
+
         call.resolve();
     }
 
+    /**
+     * Changes a stored alarm in place. The id stays the same, only the
+     * changed fields are written and the registration is replaced with a
+     * single AlarmManager call when the fire time moved.
+     */
     @PluginMethod
-    public void cancelAlarm(PluginCall call){
+    public void updateAlarm(PluginCall call) {
         int alarmId = call.getInt("alarmId", -1);
+        JSObject options = call.getObject("patch");
         if (alarmId == -1) {
             call.reject("Invalid alarm id "+alarmId);
             return;
         }
+        if (options == null) {
+            call.reject("Missing patch");
+            return;
+        }
 
-        Context context = getContext();
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        JSObject current = alarmStorage.getAlarm(alarmId);
+        if (current == null) {
+            call.reject("Alarm not found "+alarmId);
+            return;
+        }
+
+        JSObject patch;
+        try {
+            patch = buildPatch(options, current, System.currentTimeMillis());
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+
+        JSObject updated;
+        try {
+            updated = patch.length() > 0 ? alarmStorage.patchAlarm(alarmId, patch) : current;
+        } catch (RuntimeException e) {
+            call.reject("Could not store the alarm", e);
+            return;
+        }
+        if (updated == null) {
+            call.reject("Alarm not found "+alarmId);
+            return;
+        }
+        alarmScheduler.onAlarmUpdated(updated, current.optLong("timestamp"));
 
-        // Recreate PendingIntent to cancel the alarm
-        Intent intent = new Intent(context, AlarmReceiver.class);
-        intent.setAction("ALARM_" + alarmId);
-        intent.putExtra("alarmId", alarmId);
+        call.resolve(alarmStorage.withPayloads(Collections.singletonList(updated)).get(0));
+    }
 
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                alarmId,
-                intent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
+    /**
+     * Moves an alarm delayMs ahead of now. A ringing alarm is silenced and
+     * snoozed by AlarmService, the same path as the snooze notification action.
+     */
+    @PluginMethod
+    public void snoozeAlarm(PluginCall call) {
+        int alarmId = call.getInt("alarmId", -1);
+        long delayMs = call.getLong("delayMs", 0L);
+        if (alarmId == -1) {
+            call.reject("Invalid alarm id "+alarmId);
+            return;
+        }
+        if (delayMs <= 0) {
+            call.reject("Invalid delayMs "+delayMs);
+            return;
+        }
 
-        // Cancel the alarm
-        alarmManager.cancel(pendingIntent);
+        long snoozeUntil = System.currentTimeMillis() + delayMs;
 
-        alarmStorage.removeAlarm(alarmId);
+        if (AlarmService.isRinging(alarmId)) {
+            Context ctx = getContext();
+            Intent snooze = new Intent(ctx, AlarmService.class);
+            snooze.setAction("SNOOZE_ALARM");
+            snooze.putExtra("alarmId", alarmId);
+            snooze.putExtra("snoozeUntil", snoozeUntil);
+            ctx.startService(snooze);
 
-        call.resolve();
+            JSObject result = new JSObject();
+            result.put("id", alarmId);
+            result.put("timestamp", snoozeUntil);
+            call.resolve(result);
+            return;
+        }
+
+        // Queued behind any bookkeeping of the alarm firing
+        AlarmExecutor.execute(() -> {
+            JSObject snoozed;
+            try {
+                snoozed = alarmScheduler.snooze(alarmId, snoozeUntil, null);
+            } catch (RuntimeException e) {
+                call.reject("Could not store the alarm", e);
+                return;
+            }
+            if (snoozed == null) {
+                call.reject("Alarm not found "+alarmId);
+                return;
+            }
+            call.resolve(snoozed);
+        });
+    }
+
+    @PluginMethod
+    public void configure(PluginCall call) {
+        AlarmConfig config = new AlarmConfig(getContext());
+        int previousMaxArmed = config.getMaxArmedAlarms();
+
+        config.update(call.getData());
+
+        if (config.getMaxArmedAlarms() != previousMaxArmed) {
+            alarmScheduler.applyMode();
+        }
+
+        call.resolve(config.toJSObject());
+    }
+
+    @PluginMethod
+    public void getAlarmMetrics(PluginCall call) {
+        boolean reset = call.getBoolean("reset", false);
+        Context appContext = getContext().getApplicationContext();
+        // Persisted histograms are read and written on the worker thread only
+        AlarmExecutor.execute(() -> call.resolve(AlarmMetrics.snapshot(appContext, reset)));
     }
 
 
     @PluginMethod
     public void getAlarms(PluginCall call) {
         JSObject result = new JSObject();
+        result.put("version", alarmStorage.getVersion());
         JSArray alarms = alarmStorage.getAlarms();
         result.put("alarms", alarms);
         call.resolve(result);
     }
 
+    @PluginMethod
+    public void getChangesSince(PluginCall call) {
+        Long version = call.getLong("version");
+        if (version == null) {
+            call.reject("Missing version");
+            return;
+        }
+
+        AlarmStorage.Change change = alarmStorage.getChangesSince(version);
+        if (change != null) {
+            JSObject result = change.toJSObject();
+            result.put("reset", false);
+            call.resolve(result);
+            return;
+        }
+
+        // The version is no longer covered by the change log, hand out a full snapshot instead
+        JSObject result = alarmStorage.getSnapshot().toJSObject();
+        result.put("reset", true);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void queryAlarms(PluginCall call) {
+        AlarmQuery query;
+        try {
+            query = AlarmQuery.fromOptions(call.getData());
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        call.resolve(alarmStorage.query(query));
+    }
+
     @PluginMethod
     public void stopAlarm(PluginCall call) {
         Context ctx = getContext();
         Intent stop = new Intent(ctx, AlarmService.class);
         stop.setAction("STOP_ALARM");
+        // Without an id every ringing alarm is stopped
+        stop.putExtra("alarmId", call.getInt("alarmId", -1));
         ctx.startService(stop);
 
         call.resolve();
@@ -462,31 +779,4 @@ public class capacitorExactAlarmPlugin extends Plugin {
         currentCall=call;
         soundPickerLauncher.launch(intent);
     }
-
-    // Call this from your alarm receiver / service when alarm triggers
-    public void notifyAlarmTriggered(Intent intent) {
-        int alarmId = intent.getIntExtra("alarmId", -1);
-        String title = intent.getStringExtra("title");
-        String msg = intent.getStringExtra("msg");
-        String soundName = intent.getStringExtra("soundName");
-        String data = intent.getStringExtra("data");
-
-        JSObject ret = new JSObject();
-        ret.put("alarmId", alarmId);
-        ret.put("title", title);
-        ret.put("msg", msg);
-        ret.put("soundName", soundName);
-
-        if (data == null || data.length() == 0) {
-            ret.put("data",new JSONObject());
-        } else {
-            try {
-                ret.put("data",new JSONObject(data));
-            }catch (Exception e){
-                Log.e("handleNotificationTap", "invalid JSON" );
-            }
-        }
-
-        notifyListeners("alarmTriggered", ret);
-    }
 }
@@ -0,0 +1,61 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import android.app.NotificationManager;
+
+import androidx.core.app.NotificationCompat;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+public class AlarmChannelTest {
+
+    @Test
+    public void options_fillInTheDefaults() {
+        JSObject options = new JSObject();
+        options.put("id", "reminders");
+
+        AlarmChannel channel = AlarmChannel.fromOptions(options);
+
+        assertEquals("reminders", channel.name);
+        assertEquals(NotificationManager.IMPORTANCE_HIGH, channel.getImportance());
+        assertEquals(NotificationCompat.PRIORITY_HIGH, channel.getPriority());
+        assertTrue(channel.vibrate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingId_isRejected() {
+        JSObject options = new JSObject();
+        options.put("name", "Reminders");
+        AlarmChannel.fromOptions(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownImportance_isRejected() {
+        JSObject options = new JSObject();
+        options.put("id", "reminders");
+        options.put("importance", "urgent");
+        AlarmChannel.fromOptions(options);
+    }
+
+    @Test
+    public void storedChannel_roundTrips_andFallsBackToTheDefault() {
+        JSObject options = new JSObject();
+        options.put("id", "quiet");
+        options.put("importance", "low");
+        options.put("vibrate", false);
+
+        AlarmChannel stored = AlarmChannel.fromStored(AlarmChannel.fromOptions(options).toJSObject());
+        assertEquals("quiet", stored.id);
+        assertEquals(NotificationManager.IMPORTANCE_LOW, stored.getImportance());
+        assertFalse(stored.vibrate);
+
+        // Stored by an older version, or without the required id
+        JSObject unreadable = new JSObject();
+        unreadable.put("importance", "low");
+        assertEquals(AlarmChannel.DEFAULT, AlarmChannel.fromStored((String) null));
+        assertEquals(AlarmChannel.DEFAULT, AlarmChannel.fromStored(unreadable));
+    }
+}
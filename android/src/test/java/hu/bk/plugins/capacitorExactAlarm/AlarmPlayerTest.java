@@ -0,0 +1,122 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.junit.Test;
+
+public class AlarmPlayerTest {
+
+    // Stands in for the MediaPlayer and keeps the callbacks it was handed last
+    private static final class FakeMedia implements AlarmPlayer.Media {
+        int prepares;
+        int starts;
+        Runnable onPrepared;
+        Runnable onCompletion;
+        Runnable onError;
+
+        @Override
+        public void prepare(Context context, Uri uri, Runnable onPrepared, Runnable onCompletion, Runnable onError) {
+            prepares++;
+            this.onPrepared = onPrepared;
+            setCallbacks(onCompletion, onError);
+        }
+
+        @Override
+        public void setCallbacks(Runnable onCompletion, Runnable onError) {
+            this.onCompletion = onCompletion;
+            this.onError = onError;
+        }
+
+        @Override
+        public void start() {
+            starts++;
+        }
+
+        @Override
+        public void rewind() {
+        }
+    }
+
+    private static final class Recorder implements AlarmPlayer.Listener {
+        int started;
+        int finished;
+        int errors;
+
+        @Override
+        public void onStarted() {
+            started++;
+        }
+
+        @Override
+        public void onFinished() {
+            finished++;
+        }
+
+        @Override
+        public void onError() {
+            errors++;
+        }
+    }
+
+    @Test
+    public void sameSoundTwice_finishesTheSecondAlarm() {
+        FakeMedia media = new FakeMedia();
+        AlarmPlayer player = new AlarmPlayer(null, media);
+
+        Recorder first = new Recorder();
+        player.play("chime", null, first);
+        media.onPrepared.run();
+        media.onCompletion.run();
+        assertEquals(1, first.started);
+        assertEquals(1, first.finished);
+
+        Recorder second = new Recorder();
+        player.play("chime", null, second);
+        // Reused without preparing again
+        assertEquals(1, media.prepares);
+        assertEquals(2, media.starts);
+        assertEquals(1, second.started);
+
+        media.onCompletion.run();
+        assertEquals(1, second.finished);
+        assertEquals(1, first.finished);
+    }
+
+    @Test
+    public void sameSoundTwice_reportsAnErrorToTheSecondAlarm() {
+        FakeMedia media = new FakeMedia();
+        AlarmPlayer player = new AlarmPlayer(null, media);
+
+        player.play("chime", null, new Recorder());
+        media.onPrepared.run();
+
+        Recorder second = new Recorder();
+        player.play("chime", null, second);
+        media.onError.run();
+        assertEquals(1, second.errors);
+
+        // The failed source is prepared again for the next alarm
+        player.play("chime", null, new Recorder());
+        assertEquals(2, media.prepares);
+    }
+
+    @Test
+    public void stoppedAlarm_ignoresItsLateCompletion() {
+        FakeMedia media = new FakeMedia();
+        AlarmPlayer player = new AlarmPlayer(null, media);
+
+        Recorder first = new Recorder();
+        player.play("chime", null, first);
+        media.onPrepared.run();
+        Runnable stale = media.onCompletion;
+
+        Recorder second = new Recorder();
+        player.play("chime", null, second);
+        stale.run();
+        assertEquals(0, first.finished);
+        assertEquals(0, second.finished);
+    }
+}
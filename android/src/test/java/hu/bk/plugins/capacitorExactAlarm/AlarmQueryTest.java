@@ -0,0 +1,98 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AlarmQueryTest {
+
+    // Alarm i fires at i * 10, added in reverse so insertion order differs from time order
+    private static AlarmStorage storageWith(int count) {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+        for (int i = count; i >= 1; i--) {
+            JSObject alarm = alarm(i, i * 10L);
+            alarm.put("data", "{\"payload\":" + i + "}");
+            storage.addAlarm(alarm);
+        }
+        return storage;
+    }
+
+    private static List<Integer> ids(JSObject page) throws JSONException {
+        JSArray alarms = (JSArray) page.get("alarms");
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < alarms.length(); i++) {
+            ids.add(alarms.getJSONObject(i).getInt("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void timeRange_isInclusiveAndOrdered() throws JSONException {
+        JSObject options = new JSObject();
+        options.put("from", 30);
+        options.put("to", 60);
+
+        JSObject page = storageWith(10).query(AlarmQuery.fromOptions(options));
+
+        assertEquals(Arrays.asList(3, 4, 5, 6), ids(page));
+        assertEquals(4, page.getInt("total"));
+        assertFalse(page.has("nextCursor"));
+    }
+
+    @Test
+    public void cursor_walksEveryAlarmOnce() throws JSONException {
+        AlarmStorage storage = storageWith(25);
+        List<Integer> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            JSObject options = new JSObject();
+            options.put("limit", 10);
+            options.put("order", "desc");
+            options.put("cursor", cursor);
+            JSObject page = storage.query(AlarmQuery.fromOptions(options));
+            seen.addAll(ids(page));
+            cursor = page.optString("nextCursor", null);
+        } while (cursor != null);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 25; i >= 1; i--) {
+            expected.add(i);
+        }
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    public void offsetAndProjection() throws JSONException {
+        JSObject options = new JSObject();
+        options.put("sort", "id");
+        options.put("offset", 2);
+        options.put("limit", 3);
+        options.put("omit", new JSArray(Arrays.asList("data")));
+
+        JSObject page = storageWith(10).query(AlarmQuery.fromOptions(options));
+
+        assertEquals(Arrays.asList(3, 4, 5), ids(page));
+        JSObject first = JSObject.fromJSONObject(((JSArray) page.get("alarms")).getJSONObject(0));
+        assertFalse(first.has("data"));
+        assertTrue(first.has("timestamp"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetWithCursor_isRejected() {
+        JSObject options = new JSObject();
+        options.put("offset", 1);
+        options.put("cursor", "10:1");
+        AlarmQuery.fromOptions(options);
+    }
+}
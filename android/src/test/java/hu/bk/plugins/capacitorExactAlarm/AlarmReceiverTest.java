@@ -0,0 +1,69 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public class AlarmReceiverTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static JSObject daily(int hour, int minute, long timestamp) {
+        JSObject calendar = new JSObject();
+        calendar.put("timeZone", "UTC");
+        calendar.put("hour", hour);
+        calendar.put("minute", minute);
+
+        JSObject alarm = new JSObject();
+        alarm.put("id", 1);
+        alarm.put("timestamp", timestamp);
+        alarm.put("calendar", calendar);
+        return alarm;
+    }
+
+    @Test
+    public void calendarAlarm_movesToTheFollowingOccurrence() {
+        long occurrence = utc(2024, 3, 10, 7, 30);
+
+        // Delivered two minutes late
+        assertEquals(utc(2024, 3, 11, 7, 30), AlarmReceiver.nextFireTime(daily(7, 30, occurrence), occurrence + 2 * MINUTE));
+    }
+
+    @Test
+    public void coalescedCompanion_doesNotGetItsOwnOccurrenceAgain() {
+        long occurrence = utc(2024, 3, 10, 7, 30);
+
+        // Rang with an alarm due a minute earlier
+        assertEquals(utc(2024, 3, 11, 7, 30), AlarmReceiver.nextFireTime(daily(7, 30, occurrence), occurrence - MINUTE));
+    }
+
+    @Test
+    public void coalescedIntervalCompanion_staysOnItsGrid() {
+        JSObject alarm = new JSObject();
+        alarm.put("id", 2);
+        alarm.put("timestamp", 30 * MINUTE);
+        alarm.put("repeatInterval", 15 * MINUTE);
+        alarm.put("repeatAnchor", 0L);
+
+        assertEquals(45 * MINUTE, AlarmReceiver.nextFireTime(alarm, 29 * MINUTE));
+    }
+
+    @Test
+    public void unreadableCalendar_hasNoNextFireTime() {
+        JSObject alarm = daily(7, 30, utc(2024, 3, 10, 7, 30));
+        JSObject calendar = new JSObject();
+        calendar.put("freq", "hourly");
+        alarm.put("calendar", calendar);
+
+        assertEquals(-1, AlarmReceiver.nextFireTime(alarm, utc(2024, 3, 10, 7, 30)));
+    }
+}
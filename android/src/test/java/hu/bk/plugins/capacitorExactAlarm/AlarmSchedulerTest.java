@@ -0,0 +1,56 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+public class AlarmSchedulerTest {
+
+    // What AlarmService keeps of a ringing alarm, its stored record is already gone
+    private static JSObject ringing(int alarmId) {
+        JSObject session = new JSObject();
+        session.put("id", alarmId);
+        session.put("title", "Wake up");
+        session.put("soundName", "chime");
+        session.put("snoozeText", "Later");
+        return session;
+    }
+
+    @Test
+    public void snoozedOneShot_isStoredAgainFromItsSession() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+        JSObject oneShot = alarm(3, 1000);
+        oneShot.put("data", "{\"note\":\"x\"}");
+        storage.addAlarm(oneShot);
+        // Dropped when it fired
+        storage.removeAlarm(3);
+
+        JSObject snoozed = AlarmScheduler.restoreRinging(storage, 3, 5000, ringing(3), "{\"note\":\"x\"}");
+
+        assertEquals(snoozed, storage.getAlarm(3));
+        assertEquals(5000L, snoozed.optLong("timestamp"));
+        assertEquals("Wake up", snoozed.getString("title"));
+        assertEquals("Later", snoozed.getString("snoozeText"));
+        assertFalse(snoozed.has("data"));
+        assertEquals("{\"note\":\"x\"}", storage.getPayload(3));
+        assertEquals(5000L, store.rows.get(3).optLong("timestamp"));
+    }
+
+    @Test
+    public void snoozedOneShot_withoutData_hasNoPayload() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+
+        JSObject snoozed = AlarmScheduler.restoreRinging(storage, 4, 5000, ringing(99), null);
+
+        // The id it rang under wins over whatever the session holds
+        assertEquals(4, snoozed.optInt("id"));
+        assertEquals(1, storage.size());
+        assertNull(storage.getPayload(4));
+    }
+}
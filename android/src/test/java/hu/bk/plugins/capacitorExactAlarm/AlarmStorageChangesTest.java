@@ -0,0 +1,122 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AlarmStorageChangesTest {
+
+    private static List<Integer> ids(List<JSObject> alarms) {
+        List<Integer> ids = new ArrayList<>();
+        for (JSObject alarm : alarms) {
+            ids.add(alarm.optInt("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void everyWrite_isReportedOnceInVersionOrder() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+        List<AlarmStorage.Change> changes = new ArrayList<>();
+        storage.setChangeListener(changes::add);
+
+        long start = storage.getVersion();
+        storage.addAlarm(alarm(1, 100));
+        storage.updateAlarmTimeStamp(1, 200);
+        storage.removeAlarm(1);
+        // Nothing to remove, no version bump
+        storage.removeAlarm(1);
+
+        assertEquals(3, changes.size());
+        assertEquals(Arrays.asList(1), ids(changes.get(0).added));
+        assertEquals(Arrays.asList(1), ids(changes.get(1).updated));
+        assertEquals(Arrays.asList(1), changes.get(2).removed);
+        assertEquals(start + 3, storage.getVersion());
+    }
+
+    @Test
+    public void changesSince_areMergedPerAlarm() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+        storage.addAlarms(Arrays.asList(alarm(1, 100), alarm(2, 200)));
+        long seen = storage.getVersion();
+
+        storage.updateAlarmTimeStamp(1, 150);
+        storage.addAlarm(alarm(3, 300));
+        storage.updateAlarmTimeStamp(3, 350);
+        storage.addAlarm(alarm(4, 400));
+        storage.updateAlarms(Collections.emptyMap(), Arrays.asList(2, 4));
+
+        AlarmStorage.Change delta = storage.getChangesSince(seen);
+
+        assertEquals(storage.getVersion(), delta.version);
+        assertEquals(Arrays.asList(3), ids(delta.added));
+        assertEquals(350L, delta.added.get(0).optLong("timestamp"));
+        assertEquals(Arrays.asList(1), ids(delta.updated));
+        // 4 was added and removed after the caller looked, it never needs to know
+        assertEquals(Arrays.asList(2), delta.removed);
+    }
+
+    @Test
+    public void unknownVersion_requiresReload() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+        storage.addAlarm(alarm(1, 100));
+
+        assertNull(storage.getChangesSince(storage.getVersion() + 1));
+        assertNull(storage.getChangesSince(0));
+        assertTrue(storage.getChangesSince(storage.getVersion()).isEmpty());
+    }
+
+    @Test
+    public void snapshot_leavesThePayloadsInTheStore() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+        JSObject withData = alarm(1, 100);
+        withData.put("data", "{\"n\":1}");
+        storage.addAlarms(Arrays.asList(withData, alarm(2, 200)));
+
+        AlarmStorage.Change snapshot = storage.getSnapshot();
+        assertEquals(storage.getVersion(), snapshot.version);
+        assertEquals(Arrays.asList(1, 2), ids(snapshot.added));
+        assertFalse(snapshot.added.get(0).has("data"));
+
+        assertEquals(Arrays.asList(1, 2), storage.clearAlarms());
+        assertTrue(storage.getSnapshot().added.isEmpty());
+    }
+
+    @Test
+    public void failedWrite_publishesNothing() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+        storage.addAlarm(alarm(1, 100));
+        List<AlarmStorage.Change> changes = new ArrayList<>();
+        storage.setChangeListener(changes::add);
+        long version = storage.getVersion();
+
+        store.failWrites = true;
+        try {
+            storage.addAlarm(alarm(2, 200));
+            fail("write should have failed");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            storage.clearAlarms();
+            fail("clear should have failed");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals(version, storage.getVersion());
+        assertTrue(changes.isEmpty());
+        assertEquals(Arrays.asList(1), ids(storage.getAlarmsByTime()));
+        assertNull(storage.getAlarm(2));
+    }
+}
@@ -0,0 +1,151 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hammers AlarmStorage from many threads and checks that readers never fail
+ * and that the in-memory index and the store agree afterwards.
+ */
+public class AlarmStorageConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 2000;
+    private static final int ID_RANGE = 200;
+
+    @Test
+    public void concurrentWritersAndReaders_keepIndexConsistent() throws Exception {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            writers.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int alarmId = random.nextInt(1, ID_RANGE);
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            storage.addAlarm(alarm(alarmId, random.nextLong(1, 1_000_000)));
+                            break;
+                        case 1:
+                            storage.removeAlarm(alarmId);
+                            break;
+                        case 2:
+                            storage.updateAlarmTimeStamp(alarmId, random.nextLong(1, 1_000_000));
+                            break;
+                        default:
+                            storage.addAlarms(Collections.singletonList(alarm(alarmId, random.nextLong(1, 1_000_000))));
+                    }
+                }
+                return null;
+            }));
+        }
+
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(pool.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    List<JSObject> byTime = storage.getAlarmsByTime();
+                    long previous = Long.MIN_VALUE;
+                    for (JSObject alarm : byTime) {
+                        assertTrue("time index out of order", alarm.optLong("timestamp") >= previous);
+                        previous = alarm.optLong("timestamp");
+                    }
+                    assertTrue(storage.getAlarms().length() <= ID_RANGE);
+                    storage.getAlarmsBetween(0, 500_000);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(store.rows.size(), storage.size());
+        assertEquals(storage.size(), storage.getAlarmsByTime().size());
+        assertEquals(storage.size(), storage.getAlarms().length());
+        for (JSObject alarm : storage.getAlarmsByTime()) {
+            assertEquals(alarm.optLong("timestamp"), store.rows.get(alarm.optInt("id")).optLong("timestamp"));
+        }
+    }
+
+    @Test
+    public void concurrentAllocation_neverReturnsDuplicates() throws Exception {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    assertTrue("duplicate id", ids.add(storage.allocateId()));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(THREADS * OPERATIONS, ids.size());
+
+        // A restarted process continues above everything handed out before
+        AlarmStorage restarted = new AlarmStorage(store);
+        int next = restarted.allocateId();
+        for (Integer alarmId : new HashSet<>(ids)) {
+            assertTrue(next > alarmId);
+        }
+    }
+
+    @Test
+    public void reservedIdNearTheLimit_keepsTheAllocatorPositive() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+
+        storage.reserveId(AlarmStorage.MAX_ALARM_ID);
+        assertTrue(storage.allocateId() > AlarmStorage.MAX_ALARM_ID);
+
+        try {
+            storage.reserveId(Integer.MAX_VALUE);
+            fail("id above the limit was reserved");
+        } catch (IllegalArgumentException expected) {
+            // Rejected before the allocator state changes
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class AlarmStoragePatchTest {
+
+    @Test
+    public void patch_changesOnlyTheGivenFields() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+        JSObject stored = alarm(1, 10);
+        stored.put("title", "Old");
+        stored.put("repeatInterval", 60000L);
+        stored.put("data", "{\"a\":1}");
+        storage.addAlarm(stored);
+
+        JSObject patch = new JSObject();
+        patch.put("title", "New");
+        patch.put("timestamp", 500L);
+        patch.put("repeatInterval", JSONObject.NULL);
+        JSObject patched = storage.patchAlarm(1, patch);
+
+        assertEquals("New", patched.getString("title"));
+        assertEquals(500L, storage.getNextAlarm().optLong("timestamp"));
+        assertFalse(storage.getAlarm(1).has("repeatInterval"));
+        assertEquals("New", store.rows.get(1).getString("title"));
+        // Left alone when the patch has no data
+        assertEquals("{\"a\":1}", storage.getPayload(1));
+        assertEquals(1, storage.size());
+
+        assertNull(storage.patchAlarm(2, patch));
+    }
+
+    @Test
+    public void patchedData_replacesOrDropsThePayload() {
+        AlarmStorage storage = new AlarmStorage(new InMemoryAlarmStore());
+        JSObject stored = alarm(1, 10);
+        stored.put("data", "{\"a\":1}");
+        storage.addAlarm(stored);
+
+        JSObject patch = new JSObject();
+        patch.put("data", "{\"b\":2}");
+        assertFalse(storage.patchAlarm(1, patch).has("data"));
+        assertEquals("{\"b\":2}", storage.getPayload(1));
+
+        patch.put("data", JSONObject.NULL);
+        storage.patchAlarm(1, patch);
+        assertNull(storage.getPayload(1));
+        assertFalse(storage.getAlarm(1).has("data"));
+    }
+}
@@ -0,0 +1,70 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.InMemoryAlarmStore;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+public class AlarmStoragePayloadTest {
+
+    private static JSObject alarmWithData(int alarmId, String data) {
+        JSObject alarm = alarm(alarmId, alarmId * 10L);
+        alarm.put("data", data);
+        return alarm;
+    }
+
+    @Test
+    public void payload_isStoredApartFromTheRecord() throws JSONException {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+
+        storage.addAlarm(alarmWithData(1, "{\"big\":true}"));
+        storage.addAlarm(alarmWithData(2, "{}"));
+
+        assertFalse(storage.getAlarm(1).has("data"));
+        assertFalse(store.rows.get(1).has("data"));
+        assertEquals("{\"big\":true}", storage.getPayload(1));
+        // Empty payloads are not stored at all
+        assertNull(storage.getPayload(2));
+
+        JSArray alarms = storage.getAlarms();
+        assertEquals("{\"big\":true}", alarms.getJSONObject(0).getString("data"));
+        assertEquals("{}", alarms.getJSONObject(1).getString("data"));
+
+        // Every caller gets an array of its own
+        alarms.remove(0);
+        assertEquals(2, storage.getAlarms().length());
+    }
+
+    @Test
+    public void payload_followsTheAlarmLifecycle() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        AlarmStorage storage = new AlarmStorage(store);
+
+        storage.addAlarm(alarmWithData(1, "{\"a\":1}"));
+        storage.updateAlarmTimeStamp(1, 500);
+        assertEquals("{\"a\":1}", storage.getPayload(1));
+
+        storage.removeAlarm(1);
+        assertNull(storage.getPayload(1));
+        assertTrue(store.payloads.isEmpty());
+    }
+
+    @Test
+    public void embeddedPayloads_areMovedOutOnLoad() {
+        InMemoryAlarmStore store = new InMemoryAlarmStore();
+        store.rows.put(7, alarmWithData(7, "{\"legacy\":1}"));
+
+        AlarmStorage storage = new AlarmStorage(store);
+
+        assertFalse(storage.getAlarm(7).has("data"));
+        assertFalse(store.rows.get(7).has("data"));
+        assertEquals("{\"legacy\":1}", storage.getPayload(7));
+    }
+}
@@ -0,0 +1,103 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store and records shared by the AlarmStorage tests.
+ */
+final class AlarmStoreFixtures {
+
+    private AlarmStoreFixtures() {
+    }
+
+    /**
+     * Store kept in memory, counts writes so the tests can check batching.
+     * Writes throw while failWrites is set, like a full disk.
+     */
+    static final class InMemoryAlarmStore implements AlarmStore {
+
+        final Map<Integer, JSObject> rows = new ConcurrentHashMap<>();
+        final Map<Integer, String> payloads = new ConcurrentHashMap<>();
+        volatile int idCeiling;
+        volatile int writes;
+        volatile boolean failWrites;
+
+        @Override
+        public List<JSObject> loadAll() {
+            return new ArrayList<>(rows.values());
+        }
+
+        @Override
+        public synchronized void write(Collection<JSObject> upserts, Map<Integer, String> payloadChanges, Collection<Integer> removals) {
+            if (failWrites) {
+                throw new IllegalStateException("disk full");
+            }
+            for (Integer alarmId : removals) {
+                rows.remove(alarmId);
+                payloads.remove(alarmId);
+            }
+            for (JSObject alarm : upserts) {
+                rows.put(alarm.optInt("id"), alarm);
+            }
+            for (Map.Entry<Integer, String> entry : payloadChanges.entrySet()) {
+                if (entry.getValue() == null) {
+                    payloads.remove(entry.getKey());
+                } else {
+                    payloads.put(entry.getKey(), entry.getValue());
+                }
+            }
+            writes++;
+        }
+
+        @Override
+        public synchronized void clear() {
+            if (failWrites) {
+                throw new IllegalStateException("disk full");
+            }
+            rows.clear();
+            payloads.clear();
+            writes++;
+        }
+
+        @Override
+        public String loadPayload(int alarmId) {
+            return payloads.get(alarmId);
+        }
+
+        @Override
+        public Map<Integer, String> loadPayloads(Collection<Integer> alarmIds) {
+            Map<Integer, String> result = new HashMap<>();
+            for (Integer alarmId : alarmIds) {
+                if (payloads.containsKey(alarmId)) {
+                    result.put(alarmId, payloads.get(alarmId));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int loadIdCeiling() {
+            return idCeiling;
+        }
+
+        @Override
+        public void saveIdCeiling(int ceiling) {
+            idCeiling = ceiling;
+        }
+    }
+
+    static JSObject alarm(int alarmId, long timestamp) {
+        JSObject alarm = new JSObject();
+        alarm.put("id", alarmId);
+        alarm.put("timestamp", timestamp);
+        alarm.put("title", "Alarm " + alarmId);
+        return alarm;
+    }
+}
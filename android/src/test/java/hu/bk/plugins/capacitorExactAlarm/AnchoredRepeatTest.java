@@ -0,0 +1,71 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+public class AnchoredRepeatTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private static JSObject repeating(long anchor, long timestamp, String missedPolicy) {
+        JSObject alarm = new JSObject();
+        alarm.put("id", 1);
+        alarm.put("timestamp", timestamp);
+        alarm.put("repeatInterval", 15 * MINUTE);
+        alarm.put("repeatAnchor", anchor);
+        alarm.put("missedPolicy", missedPolicy);
+        return alarm;
+    }
+
+    @Test
+    public void lateDelivery_doesNotShiftTheNextSlot() {
+        JSObject alarm = repeating(0, 15 * MINUTE, null);
+
+        // Delivered 40 seconds late
+        assertEquals(30 * MINUTE, AnchoredRepeat.next(alarm, 15 * MINUTE + 40_000));
+    }
+
+    @Test
+    public void missedSlots_areSkippedByDefault() {
+        JSObject alarm = repeating(0, 15 * MINUTE, null);
+
+        assertEquals(60 * MINUTE, AnchoredRepeat.next(alarm, 50 * MINUTE));
+        assertEquals(60 * MINUTE, AnchoredRepeat.resume(alarm, 50 * MINUTE));
+    }
+
+    @Test
+    public void missedSlots_fireOnceWhenAsked() {
+        JSObject alarm = repeating(0, 15 * MINUTE, AnchoredRepeat.POLICY_FIRE_ONCE);
+
+        // The latest missed slot rings right away, then the grid continues
+        assertEquals(45 * MINUTE, AnchoredRepeat.resume(alarm, 50 * MINUTE));
+        assertEquals(60 * MINUTE, AnchoredRepeat.next(repeating(0, 45 * MINUTE, AnchoredRepeat.POLICY_FIRE_ONCE), 50 * MINUTE));
+    }
+
+    @Test
+    public void lateDelivery_neverRingsTwice() {
+        JSObject alarm = repeating(0, 15 * MINUTE, AnchoredRepeat.POLICY_FIRE_ONCE);
+
+        // Delivered 35 minutes late, the slots it passed over do not ring again
+        assertEquals(60 * MINUTE, AnchoredRepeat.next(alarm, 50 * MINUTE));
+        assertEquals(60 * MINUTE, AnchoredRepeat.next(alarm, 45 * MINUTE));
+    }
+
+    @Test
+    public void snoozedFire_returnsToTheGrid() {
+        JSObject alarm = repeating(0, 20 * MINUTE, null);
+
+        assertEquals(30 * MINUTE, AnchoredRepeat.next(alarm, 20 * MINUTE));
+    }
+
+    @Test
+    public void alarmWithoutAnchor_usesItsLastFireTime() {
+        JSObject alarm = repeating(0, 7 * MINUTE, null);
+        alarm.remove("repeatAnchor");
+
+        assertEquals(22 * MINUTE, AnchoredRepeat.next(alarm, 7 * MINUTE + 500));
+    }
+}
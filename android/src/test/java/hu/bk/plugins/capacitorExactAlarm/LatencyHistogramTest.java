@@ -0,0 +1,68 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areExactForSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(10, histogram.percentile(0.50));
+        assertEquals(18, histogram.percentile(0.90));
+        assertEquals(20, histogram.percentile(0.99));
+        assertEquals(20, histogram.getMax());
+    }
+
+    @Test
+    public void percentiles_ofLargeValues_stayWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(120);
+        }
+        // One Doze-delayed delivery
+        histogram.record(600_000);
+
+        long p50 = histogram.percentile(0.50);
+        assertTrue(p50 >= 120 && p50 <= 120 * 1.07);
+        assertEquals(600_000, histogram.percentile(1.0));
+        assertEquals(100, histogram.getCount());
+    }
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        long previous = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            long highest = LatencyHistogram.highestOf(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(previous + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            previous = highest;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void encodedHistogram_mergesBack() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(250);
+        histogram.record(4_000);
+
+        LatencyHistogram restored = new LatencyHistogram();
+        restored.record(10);
+        restored.merge(histogram.encode());
+
+        assertEquals(4, restored.getCount());
+        assertEquals(4_000, restored.getMax());
+        assertEquals(10, restored.percentile(0.50));
+
+        // Garbage from another version is ignored
+        restored.merge("not;a histogram");
+        assertEquals(4, restored.getCount());
+    }
+}
@@ -0,0 +1,74 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class PersistentTreeTest {
+
+    private static List<Integer> drain(Iterator<Integer> iterator) {
+        List<Integer> list = new ArrayList<>();
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        return list;
+    }
+
+    @Test
+    public void randomChanges_matchATreeSet() {
+        Random random = new Random(42);
+        PersistentTree<Integer> tree = PersistentTree.empty(Comparator.naturalOrder());
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int i = 0; i < 5000; i++) {
+            int value = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                tree = tree.without(value);
+                expected.remove(value);
+            } else {
+                tree = tree.with(value);
+                expected.add(value);
+            }
+        }
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals(new ArrayList<>(expected), tree.toList());
+        assertEquals(expected.first(), tree.first());
+
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(520) - 10;
+            int to = from + random.nextInt(100);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            NavigableSet<Integer> range = expected.subSet(from, fromInclusive, to, toInclusive);
+
+            assertEquals(new ArrayList<>(range), drain(tree.iterator(from, fromInclusive, to, toInclusive, false)));
+            assertEquals(new ArrayList<>(range.descendingSet()), drain(tree.iterator(to, toInclusive, from, fromInclusive, true)));
+            assertEquals(expected.subSet(from, true, to, true).size(), tree.count(from, to));
+        }
+    }
+
+    @Test
+    public void changes_leaveEarlierVersionsAlone() {
+        PersistentTree<Integer> empty = PersistentTree.empty(Comparator.naturalOrder());
+        PersistentTree<Integer> one = empty.with(1);
+        PersistentTree<Integer> two = one.with(2);
+        PersistentTree<Integer> back = two.without(1);
+
+        assertTrue(empty.isEmpty());
+        assertEquals(1, one.size());
+        assertEquals(2, two.size());
+        assertNull(back.get(1));
+        assertEquals(Integer.valueOf(1), two.get(1));
+        // Removing something absent keeps the very same tree
+        assertTrue(back == back.without(7));
+    }
+}
@@ -0,0 +1,141 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public class RecurrenceRuleTest {
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static JSObject rule(int hour, int minute) {
+        JSObject rule = new JSObject();
+        rule.put("timeZone", "UTC");
+        rule.put("hour", hour);
+        rule.put("minute", minute);
+        return rule;
+    }
+
+    private static JSArray ints(int... values) {
+        JSArray array = new JSArray();
+        for (int value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    @Test
+    public void legacyDaily_firesLaterTodayOrTomorrow() {
+        RecurrenceRule rule = RecurrenceRule.fromCalendar(rule(7, 30));
+
+        assertEquals(utc(2024, 3, 10, 7, 30), rule.next(utc(2024, 3, 10, 6, 0)));
+        assertEquals(utc(2024, 3, 11, 7, 30), rule.next(utc(2024, 3, 10, 7, 30)));
+    }
+
+    @Test
+    public void legacyWeekday_isWeekly() {
+        JSObject calendar = rule(9, 0);
+        // Monday
+        calendar.put("weekday", 2);
+
+        // 2024-03-10 is a Sunday
+        assertEquals(utc(2024, 3, 11, 9, 0), RecurrenceRule.fromCalendar(calendar).next(utc(2024, 3, 10, 12, 0)));
+    }
+
+    @Test
+    public void day31_skipsShortMonths() {
+        JSObject calendar = rule(8, 0);
+        calendar.put("day", 31);
+
+        long[] occurrences = RecurrenceRule.fromCalendar(calendar).preview(utc(2024, 1, 31, 9, 0), 3);
+
+        assertArrayEquals(new long[]{
+                utc(2024, 3, 31, 8, 0),
+                utc(2024, 5, 31, 8, 0),
+                utc(2024, 7, 31, 8, 0)
+        }, occurrences);
+    }
+
+    @Test
+    public void lastWeekdayOfMonth_withSetPos() {
+        JSObject calendar = rule(17, 0);
+        calendar.put("freq", "monthly");
+        // Monday to Friday, the last of them
+        calendar.put("byWeekday", ints(2, 3, 4, 5, 6));
+        calendar.put("bySetPos", ints(-1));
+
+        long[] occurrences = RecurrenceRule.fromCalendar(calendar).preview(utc(2024, 3, 1, 0, 0), 3);
+
+        assertArrayEquals(new long[]{
+                utc(2024, 3, 29, 17, 0),
+                utc(2024, 4, 30, 17, 0),
+                utc(2024, 5, 31, 17, 0)
+        }, occurrences);
+    }
+
+    @Test
+    public void interval_countsFromStart() {
+        JSObject calendar = rule(10, 0);
+        calendar.put("freq", "weekly");
+        calendar.put("interval", 2);
+        calendar.put("byWeekday", ints(3, 5));
+        // Monday 2024-03-04
+        calendar.put("start", utc(2024, 3, 4, 0, 0));
+
+        long[] occurrences = RecurrenceRule.fromCalendar(calendar).preview(utc(2024, 3, 8, 0, 0), 3);
+
+        assertArrayEquals(new long[]{
+                utc(2024, 3, 19, 10, 0),
+                utc(2024, 3, 21, 10, 0),
+                utc(2024, 4, 2, 10, 0)
+        }, occurrences);
+    }
+
+    @Test
+    public void countUntilAndExclusions_limitTheSeries() {
+        JSObject calendar = rule(6, 0);
+        calendar.put("start", utc(2024, 3, 1, 0, 0));
+        calendar.put("count", 4);
+        JSArray exclude = new JSArray();
+        exclude.put(utc(2024, 3, 2, 6, 0));
+        calendar.put("exclude", exclude);
+
+        RecurrenceRule rule = RecurrenceRule.fromCalendar(calendar);
+        // The excluded occurrence still counts
+        assertArrayEquals(new long[]{
+                utc(2024, 3, 1, 6, 0),
+                utc(2024, 3, 3, 6, 0),
+                utc(2024, 3, 4, 6, 0)
+        }, rule.preview(utc(2024, 2, 1, 0, 0), 10));
+        assertEquals(-1, rule.next(utc(2024, 3, 4, 6, 0)));
+
+        calendar.remove("count");
+        calendar.put("until", utc(2024, 3, 5, 6, 0));
+        assertEquals(-1, RecurrenceRule.fromCalendar(calendar).next(utc(2024, 3, 5, 6, 0)));
+    }
+
+    @Test
+    public void impossibleRule_hasNoOccurrence() {
+        JSObject calendar = rule(6, 0);
+        calendar.put("freq", "yearly");
+        calendar.put("byMonth", ints(2));
+        calendar.put("byMonthDay", ints(30));
+
+        assertEquals(-1, RecurrenceRule.fromCalendar(calendar).next(utc(2024, 1, 1, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWeekday_isRejected() {
+        JSObject calendar = rule(6, 0);
+        calendar.put("byWeekday", ints(8));
+        RecurrenceRule.fromCalendar(calendar);
+    }
+}
@@ -0,0 +1,108 @@
+package hu.bk.plugins.capacitorExactAlarm;
+
+import static hu.bk.plugins.capacitorExactAlarm.AlarmStoreFixtures.alarm;
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * updateAlarm validation, the part of buildPatch that needs no context.
+ */
+public class capacitorExactAlarmPluginTest {
+
+    private static final long NOW = 1_000_000L;
+    private static final long MINUTE = 60_000L;
+    private static final int MAX_DATA_BYTES = 64;
+
+    private static JSObject current() {
+        JSObject current = alarm(1, NOW + 10 * MINUTE);
+        current.put("title", "Old");
+        current.put("repeatInterval", 5 * MINUTE);
+        current.put("repeatAnchor", NOW + 10 * MINUTE);
+        return current;
+    }
+
+    private static JSObject patch(JSObject options) {
+        return capacitorExactAlarmPlugin.buildPatch(options, current(), NOW, MAX_DATA_BYTES);
+    }
+
+    @Test
+    public void unchangedFields_areLeftOut() {
+        JSObject options = new JSObject();
+        options.put("title", "Old");
+        options.put("timestamp", NOW + 10 * MINUTE);
+
+        assertEquals(0, patch(options).length());
+    }
+
+    @Test
+    public void clearedText_isRemoved() {
+        JSObject options = new JSObject();
+        options.put("title", JSONObject.NULL);
+
+        assertEquals(JSONObject.NULL, patch(options).opt("title"));
+    }
+
+    @Test
+    public void newTimestamp_startsANewRepeatGrid() {
+        JSObject options = new JSObject();
+        options.put("timestamp", NOW + 20 * MINUTE);
+
+        JSObject patch = patch(options);
+        assertEquals(NOW + 20 * MINUTE, patch.optLong("timestamp"));
+        assertEquals(NOW + 20 * MINUTE, patch.optLong("repeatAnchor"));
+    }
+
+    @Test
+    public void droppedInterval_dropsTheAnchor() {
+        JSObject options = new JSObject();
+        options.put("repeatInterval", 0);
+
+        JSObject patch = patch(options);
+        assertEquals(JSONObject.NULL, patch.opt("repeatInterval"));
+        assertEquals(JSONObject.NULL, patch.opt("repeatAnchor"));
+    }
+
+    @Test
+    public void changedSound_isLeftForTheCallerToResolve() {
+        JSObject options = new JSObject();
+        options.put("soundName", "chime");
+
+        JSObject patch = patch(options);
+        assertEquals("chime", patch.getString("soundName"));
+        assertFalse(patch.has("resolvedSound"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expiredTimestamp_isRejected() {
+        JSObject options = new JSObject();
+        options.put("timestamp", NOW);
+        patch(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedData_isRejected() {
+        JSObject data = new JSObject();
+        data.put("note", new String(new char[MAX_DATA_BYTES]).replace('\0', 'x'));
+        JSObject options = new JSObject();
+        options.put("data", data);
+        patch(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMissedPolicy_isRejected() {
+        JSObject options = new JSObject();
+        options.put("missedPolicy", "later");
+        patch(options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unusableChannel_isRejected() {
+        JSObject options = new JSObject();
+        options.put("channel", new JSObject());
+        patch(options);
+    }
+}
@@ -5,16 +5,21 @@ import { PluginListenerHandle } from "@capacitor/core";
  *
  * | Property        | Type       | Description |
  * |----------------|------------|-------------|
- * | id             | number?    | Unique ID of the alarm (auto-generated when created). |
+ * | id             | number?    | Unique ID of the alarm. Generated when omitted, a caller supplied id (1 to 2147483519) replaces the alarm stored under it. |
  * | timestamp      | number?    | Unix timestamp (ms) when the alarm should fire. |
  * | calendar       | calendar?  | Calendar-based schedule (weekly / monthly / daily). |
- * | repeatInterval | number?    | Repeating interval in milliseconds. |
+ * | repeatInterval | number?    | Repeating interval in milliseconds. Occurrences stay on the grid `timestamp + k * repeatInterval`, a late delivery never shifts the next one. |
+ * | repeatAnchor   | number?    | Set by the plugin: start of the repeat grid (Unix ms). |
+ * | missedPolicy   | string?    | What a repeating alarm does after missing whole slots: `"skip"` (default) waits for the next slot, `"fireOnce"` rings once right away. |
  * | title          | string     | Notification title. |
  * | msg            | string     | Notification message. |
  * | soundName      | string     | URI of the alarm sound. |
  * | icon           | string?    | Android notification icon name. |
  * | dismissText    | string?    | Text for the dismiss action button. |
+ * | snoozeText     | string?    | Text for the snooze action button. |
  * | missedText     | string?    | Text shown for missed alarms. |
+ * | channel        | alarmChannel? | Android notification channel of the alarm, the shared `alarm_channel` when omitted. |
+ * | group          | string?    | Notifications of ringing alarms with the same group are bundled under one summary. |
  * | data           | any?       | Additional custom data returned on events. |
  */
 export type Alarm = {
@@ -22,15 +27,41 @@ export type Alarm = {
   timestamp?: number;
   calendar?: calendar;
   repeatInterval?: number;
+  repeatAnchor?: number;
+  missedPolicy?: "skip" | "fireOnce";
   title: string;
   msg: string;
   soundName?: string;
   icon?: string;
   dismissText?: string;
+  snoozeText?: string;
   missedText?: string;
+  channel?: alarmChannel;
+  group?: string;
   data?: any;
 };
 
+/**
+ * ## Notification Channel Properties
+ *
+ * Android fixes the importance and vibration of a channel when it is first
+ * created, alarms that reuse its id later can only rename it. Missed alarms
+ * are always bundled under one summary, whatever their channel or group.
+ *
+ * | Property   | Type     | Description |
+ * |------------|----------|-------------|
+ * | id         | string   | Channel id, alarms with the same id share the channel. |
+ * | name       | string?  | Name shown in the system settings, the id when omitted. |
+ * | importance | string?  | `"min"`, `"low"`, `"default"`, `"high"` (default) or `"max"`. Used as the notification priority before Android 8. |
+ * | vibrate    | boolean? | Whether notifications of the channel vibrate. `true` by default. |
+ */
+export interface alarmChannel {
+  id: string;
+  name?: string;
+  importance?: "min" | "low" | "default" | "high" | "max";
+  vibrate?: boolean;
+}
+
 /**
  * Weekdays for calendar scheduling.
  */
@@ -47,16 +78,68 @@ export enum Weekday {
 /**
  * ## Calendar Schedule Properties
  *
- * | Property | Type            | Description |
- * |----------|----------------|-------------|
- * | weekday  | Weekday        | Day of the week (Sunday–Saturday). |
- * | hour     | number         | Hour (0–23). |
- * | minute   | number         | Minute (0–59). |
+ * A recurrence rule modelled on RFC 5545 (iCalendar RRULE). Days that do not
+ * exist in a period are skipped, so `day: 31` only fires in months with 31 days.
+ *
+ * | Property   | Type       | Description |
+ * |------------|------------|-------------|
+ * | freq       | string?    | `"daily"`, `"weekly"`, `"monthly"` or `"yearly"`. Inferred from the other fields when omitted. |
+ * | interval   | number?    | Every n-th day / week / month / year, counted from `start`. `1` by default. |
+ * | weekday    | Weekday?   | Single day of the week, same as `byWeekday: [weekday]`. |
+ * | day        | number?    | Single day of the month, same as `byMonthDay: [day]`. |
+ * | byWeekday  | Weekday[]? | Days of the week. |
+ * | byMonthDay | number[]?  | Days of the month, negative values count from the end (`-1` = last day). |
+ * | byMonth    | number[]?  | Months (1–12). |
+ * | bySetPos   | number[]?  | Keeps only the n-th matching day of each period, e.g. `-1` for the last one. |
+ * | hour       | number?    | Hour (0–23). |
+ * | minute     | number?    | Minute (0–59). |
+ * | second     | number?    | Second (0–59). |
+ * | count      | number?    | Total number of occurrences, counted from `start`. |
+ * | until      | number?    | Unix timestamp (ms) of the last possible occurrence. |
+ * | exclude    | number[]?  | Unix timestamps (ms) of occurrences to skip. |
+ * | start      | number?    | Unix timestamp (ms) that `interval` and `count` count from. Set to the scheduling time when omitted. |
+ * | timeZone   | string?    | IANA zone the rule is evaluated in, the device zone by default. |
  */
 export interface calendar {
-  weekday: Weekday;
-  hour: number;
-  minute: number;
+  freq?: "daily" | "weekly" | "monthly" | "yearly";
+  interval?: number;
+  weekday?: Weekday;
+  day?: number;
+  byWeekday?: Weekday[];
+  byMonthDay?: number[];
+  byMonth?: number[];
+  bySetPos?: number[];
+  hour?: number;
+  minute?: number;
+  second?: number;
+  count?: number;
+  until?: number;
+  exclude?: number[];
+  start?: number;
+  timeZone?: string;
+}
+
+/**
+ * Payload to list the upcoming occurrences of a calendar rule.
+ *
+ * | Property | Type     | Description |
+ * |----------|----------|-------------|
+ * | rule     | calendar | The rule, as passed to `setAlarm`. |
+ * | count    | number?  | Number of occurrences, `10` by default, at most `1000`. |
+ * | from     | number?  | Unix timestamp (ms) to list occurrences after, now by default. |
+ */
+export interface previewOccurrences {
+  rule: calendar;
+  count?: number;
+  from?: number;
+}
+
+/**
+ * Returned when previewing a calendar rule. Unix timestamps (ms) in order,
+ * fewer than requested when the rule runs out.
+ */
+export interface previewOccurrencesResult {
+  occurrences: number[];
 }
 
 /**
@@ -66,11 +149,243 @@ export interface cancelAlarm {
   alarmId: number;
 }
 
+/**
+ * Payload to change a stored alarm in place.
+ *
+ * `patch` takes the fields of `Alarm` except `id`, fields left out keep their value.
+ * Pass `null` for `calendar` or `0` for `repeatInterval` to drop the schedule.
+ */
+export interface updateAlarm {
+  alarmId: number;
+  patch: Partial<Omit<Alarm, "id">>;
+}
+
+/**
+ * Payload to snooze an alarm.
+ */
+export interface snoozeAlarm {
+  alarmId: number;
+  delayMs: number;
+}
+
+/**
+ * Payload to stop a single ringing alarm.
+ */
+export interface stopAlarm {
+  alarmId?: number;
+}
+
+/**
+ * Payload to schedule several alarms at once.
+ */
+export interface setAlarms {
+  alarms: Alarm[];
+}
+
+/**
+ * Outcome of a single entry passed to `setAlarms`.
+ *
+ * | Property | Type     | Description |
+ * |----------|----------|-------------|
+ * | index    | number   | Position of the entry in the submitted array. |
+ * | success  | boolean  | Whether the alarm was scheduled. |
+ * | alarm    | Alarm?   | The scheduled alarm (with its generated id) on success. |
+ * | error    | string?  | Rejection reason on failure. |
+ */
+export interface setAlarmsItemResult {
+  index: number;
+  success: boolean;
+  alarm?: Alarm;
+  error?: string;
+}
+
+/**
+ * Returned when scheduling several alarms at once.
+ */
+export interface setAlarmsResult {
+  results: setAlarmsItemResult[];
+}
+
 /**
  * Returned when retrieving alarms.
+ *
+ * `version` identifies this state of the alarm list, pass it to `getChangesSince`
+ * to fetch only what changed afterwards.
  */
 export interface alarmResult {
   alarms: Alarm[];
+  version: number;
+}
+
+/**
+ * Payload to fetch the changes made after a known version.
+ */
+export interface getChangesSince {
+  version: number;
+}
+
+/**
+ * ## Alarm Changes
+ *
+ * Delivered by the `alarmsChanged` event and returned by `getChangesSince`.
+ * Every alarm appears at most once, apply `added` and `updated` as upserts.
+ * Alarms are sent without their `data`, fetch it with `queryAlarms` when needed.
+ *
+ * | Property | Type      | Description |
+ * |----------|-----------|-------------|
+ * | version  | number    | Version of the alarm list after these changes. |
+ * | added    | Alarm[]   | Alarms that did not exist before. |
+ * | updated  | Alarm[]   | Alarms that were changed, e.g. moved to their next fire time. |
+ * | removed  | number[]  | Ids of alarms that were removed. |
+ * | reset    | boolean?  | Only from `getChangesSince`: the version was too old, `added` holds the full list and local state should be replaced. |
+ */
+export interface alarmChanges {
+  version: number;
+  added: Alarm[];
+  updated: Alarm[];
+  removed: number[];
+  reset?: boolean;
+}
+
+/**
+ * ## Alarm Query
+ *
+ * | Property | Type                    | Description |
+ * |----------|-------------------------|-------------|
+ * | from     | number?                 | Only alarms firing at or after this Unix timestamp (ms). |
+ * | to       | number?                 | Only alarms firing at or before this Unix timestamp (ms). |
+ * | sort     | 'timestamp' \| 'id'     | Sort key, `timestamp` by default. |
+ * | order    | 'asc' \| 'desc'         | Sort order, `asc` by default. |
+ * | offset   | number?                 | Number of matching alarms to skip. Can not be combined with `cursor`. |
+ * | limit    | number?                 | Page size, 100 by default. |
+ * | cursor   | string?                 | `nextCursor` of the previous page. |
+ * | fields   | string[]?               | Only return these alarm properties (`id` is always included). |
+ * | omit     | string[]?               | Return every alarm property except these, e.g. `["data"]`. |
+ */
+export interface alarmQuery {
+  from?: number;
+  to?: number;
+  sort?: "timestamp" | "id";
+  order?: "asc" | "desc";
+  offset?: number;
+  limit?: number;
+  cursor?: string;
+  fields?: string[];
+  omit?: string[];
+}
+
+/**
+ * Returned when querying alarms.
+ *
+ * | Property   | Type     | Description |
+ * |------------|----------|-------------|
+ * | alarms     | Alarm[]  | The alarms of this page. |
+ * | total      | number   | Number of alarms inside the `from` / `to` range. |
+ * | nextCursor | string?  | Pass as `cursor` to fetch the next page, missing on the last page. |
+ */
+export interface alarmQueryResult {
+  alarms: Alarm[];
+  total: number;
+  nextCursor?: string;
+}
+
+/**
+ * ## Plugin Configuration
+ *
+ * | Property       | Type    | Description |
+ * |----------------|---------|-------------|
+ * | maxArmedAlarms | number? | Register only the earliest N alarms with the system. `0` (default) registers every alarm. |
+ * | coalesceWindowMs | number? | Alarms due within this many ms of a firing alarm share its wakeup and ringing session. `0` (default) disables it. |
+ * | maxDataBytes   | number? | Largest accepted `data` payload of an alarm, in bytes of its JSON text. `65536` by default. |
+ * | snoozeMs       | number? | How far the snooze action of a ringing alarm moves it. `300000` by default, `0` hides the action. |
+ * | latencyEvents  | boolean? | Send an `alarmLatency` event for every fire. `false` by default. |
+ * | openAppOnTap   | boolean? | Open the app when an alarm notification is tapped. `true` by default. When `false` the tap is recorded without starting the app and `alarmNotificationTapped` fires on its next start. |
+ */
+export interface alarmConfig {
+  maxArmedAlarms?: number;
+  coalesceWindowMs?: number;
+  maxDataBytes?: number;
+  snoozeMs?: number;
+  latencyEvents?: boolean;
+  openAppOnTap?: boolean;
+}
+
+/**
+ * ## Alarm Latency
+ *
+ * Timings of one fire. Durations are in ms after the broadcast was received,
+ * a stage that was not reached is left out.
+ *
+ * | Property       | Type    | Description |
+ * |----------------|---------|-------------|
+ * | alarmId        | number  | ID of the alarm. |
+ * | scheduledAt    | number  | Unix timestamp (ms) the alarm was scheduled for. |
+ * | receivedAt     | number  | Unix timestamp (ms) the broadcast was received. |
+ * | deliveryLagMs  | number? | How late the broadcast arrived, e.g. because of Doze. |
+ * | serviceStartMs | number? | Until the ringing service started, includes a cold start of the app. |
+ * | audibleMs      | number? | Until the sound started. |
+ * | notificationMs | number? | Until the notification was posted. |
+ */
+export interface alarmLatency {
+  alarmId: number;
+  scheduledAt: number;
+  receivedAt: number;
+  deliveryLagMs?: number;
+  serviceStartMs?: number;
+  audibleMs?: number;
+  notificationMs?: number;
+}
+
+/**
+ * ## Latency Histogram
+ *
+ * Percentiles are rounded up by at most about 6%. Only `count` is set while
+ * nothing was recorded.
+ *
+ * | Property | Type    | Description |
+ * |----------|---------|-------------|
+ * | count    | number  | Number of recorded fires. |
+ * | mean     | number? | Average in ms. |
+ * | p50      | number? | Median in ms. |
+ * | p90      | number? | 90th percentile in ms. |
+ * | p95      | number? | 95th percentile in ms. |
+ * | p99      | number? | 99th percentile in ms. |
+ * | max      | number? | Largest value in ms. |
+ */
+export interface latencyHistogram {
+  count: number;
+  mean?: number;
+  p50?: number;
+  p90?: number;
+  p95?: number;
+  p99?: number;
+  max?: number;
+}
+
+/**
+ * ## Alarm Metrics
+ *
+ * | Property   | Type    | Description |
+ * |------------|---------|-------------|
+ * | histograms | object  | `delivery` (schedule to broadcast), `serviceStart`, `audible` and `notification` (broadcast to that stage) and `scheduledToAudible` (schedule to sound). Kept across app restarts. |
+ * | recent     | alarmLatency[] | The latest fires since the app process started, oldest first. |
+ */
+export interface alarmMetrics {
+  histograms: {
+    delivery: latencyHistogram;
+    serviceStart: latencyHistogram;
+    audible: latencyHistogram;
+    notification: latencyHistogram;
+    scheduledToAudible: latencyHistogram;
+  };
+  recent: alarmLatency[];
+}
+
+/**
+ * Options of `getAlarmMetrics`. With `reset` the metrics are cleared after they are returned.
+ */
+export interface getAlarmMetrics {
+  reset?: boolean;
 }
 
 /**
@@ -137,6 +452,25 @@ export interface capacitorExactAlarmPlugin {
    */
   setAlarm(alarm: Alarm): Promise<Alarm>;
 
+  /**
+   * Schedule several alarms in one call.
+   *
+   * Every entry is validated on its own, valid ones are registered and stored
+   * in a single storage transaction. Invalid entries are reported in the result
+   * and do not prevent the others from being scheduled.
+   *
+   * ```ts
+   * const { results } = await capacitorExactAlarmPlugin.setAlarms({
+   *   alarms: [
+   *     { timestamp: Date.now() + 60_000, title: "First", msg: "One minute" },
+   *     { timestamp: Date.now() + 120_000, title: "Second", msg: "Two minutes" },
+   *   ],
+   * });
+   * console.log(results.filter((r) => !r.success));
+   * ```
+   */
+  setAlarms(options: setAlarms): Promise<setAlarmsResult>;
+
   /**
    * Cancel a specific alarm using its ID.
    *
@@ -146,6 +480,40 @@ export interface capacitorExactAlarmPlugin {
    */
   cancelAlarm(alarm: cancelAlarm): Promise<void>;
 
+  /**
+   * Change a stored alarm without cancelling it. The alarm keeps its id and
+   * is only registered again when its fire time changes. Resolves with the updated alarm.
+   *
+   * ```ts
+   * await capacitorExactAlarmPlugin.updateAlarm({ alarmId: 1, patch: { title: "Stand-up" } });
+   * ```
+   */
+  updateAlarm(options: updateAlarm): Promise<Alarm>;
+
+  /**
+   * List the next occurrences of a calendar rule, computed the same way as
+   * the fire times of calendar alarms.
+   *
+   * ```ts
+   * const { occurrences } = await capacitorExactAlarmPlugin.previewOccurrences({
+   *   rule: { freq: "monthly", byWeekday: [2, 3, 4, 5, 6], bySetPos: [-1], hour: 17, minute: 0 },
+   *   count: 5,
+   * });
+   * ```
+   */
+  previewOccurrences(options: previewOccurrences): Promise<previewOccurrencesResult>;
+
+  /**
+   * Move an alarm `delayMs` ahead of now, keeping its id. A ringing alarm is
+   * silenced first, a ringing one-shot alarm is stored again until it rings.
+   * Same as the snooze action of the alarm notification.
+   *
+   * ```ts
+   * await capacitorExactAlarmPlugin.snoozeAlarm({ alarmId: 1, delayMs: 5 * 60_000 });
+   * ```
+   */
+  snoozeAlarm(options: snoozeAlarm): Promise<Alarm>;
+
   /**
    * Cancel all scheduled alarms.
    *
@@ -155,6 +523,32 @@ export interface capacitorExactAlarmPlugin {
    */
   cancelAllAlarm(): Promise<void>;
 
+  /**
+   * Update plugin wide settings. Settings are persisted and returned in full.
+   *
+   * With `maxArmedAlarms` above 0 only the earliest N alarms are registered
+   * with the system at any time, the next one is armed each time an alarm fires.
+   *
+   * With `coalesceWindowMs` above 0, alarms due within the window of a firing
+   * alarm ring together in one session. `alarmTriggered` still fires once per alarm.
+   *
+   * ```ts
+   * await capacitorExactAlarmPlugin.configure({ maxArmedAlarms: 10 });
+   * ```
+   */
+  configure(options: alarmConfig): Promise<alarmConfig>;
+
+  /**
+   * How late alarms were delivered, started ringing and showed their
+   * notification, as percentile histograms and the latest fires.
+   *
+   * ```ts
+   * const { histograms } = await capacitorExactAlarmPlugin.getAlarmMetrics();
+   * console.log("p99 lateness:", histograms.scheduledToAudible.p99);
+   * ```
+   */
+  getAlarmMetrics(options?: getAlarmMetrics): Promise<alarmMetrics>;
+
   /**
    * Request permission for exact alarms (Android 12+).
    *
@@ -203,6 +597,41 @@ export interface capacitorExactAlarmPlugin {
    */
   getAlarms(): Promise<alarmResult>;
 
+  /**
+   * Retrieve one page of the scheduled alarms. Filtering, sorting and paging
+   * run natively on the alarm index, only the requested page crosses the bridge.
+   *
+   * ```ts
+   * let cursor: string | undefined;
+   * do {
+   *   const page = await capacitorExactAlarmPlugin.queryAlarms({
+   *     from: Date.now(),
+   *     limit: 50,
+   *     omit: ["data"],
+   *     cursor,
+   *   });
+   *   console.log(page.alarms);
+   *   cursor = page.nextCursor;
+   * } while (cursor);
+   * ```
+   */
+  queryAlarms(query?: alarmQuery): Promise<alarmQueryResult>;
+
+  /**
+   * Fetch what changed after a version returned by `getAlarms`, an earlier
+   * call or an `alarmsChanged` event. Use it to catch up after the app was
+   * in the background instead of reloading every alarm.
+   *
+   * ```ts
+   * const changes = await capacitorExactAlarmPlugin.getChangesSince({ version });
+   * if (changes.reset) {
+   *   alarms = changes.added;
+   * }
+   * version = changes.version;
+   * ```
+   */
+  getChangesSince(options: getChangesSince): Promise<alarmChanges>;
+
   /**
    * Open the Android ringtone picker and return the selected sound URI.
    *
@@ -214,16 +643,19 @@ export interface capacitorExactAlarmPlugin {
   pickAlarmSound(): Promise<AlarmSoundResult>;
 
   /**
-   * Stop the currently ringing alarm sound.
+   * Stop ringing alarms. Without an `alarmId` every ringing alarm is stopped,
+   * with one only that alarm stops and the others keep ringing.
    *
    * ```ts
    * await capacitorExactAlarmPlugin.stopAlarm();
+   * await capacitorExactAlarmPlugin.stopAlarm({ alarmId: 1 });
    * ```
    */
-  stopAlarm(): Promise<void>;
+  stopAlarm(alarm?: stopAlarm): Promise<void>;
 
   /**
-   * Triggered when an alarm fires.
+   * Triggered when an alarm fires. The event also carries `deliveryLagMs`,
+   * how many ms after its fire time the alarm was delivered.
    *
    * ```ts
    * capacitorExactAlarmPlugin.addListener("alarmTriggered", (alarm) => {
@@ -233,11 +665,28 @@ export interface capacitorExactAlarmPlugin {
    */
   addListener(
     eventName: "alarmTriggered",
-    listenerFunc: (data: Alarm) => void
+    listenerFunc: (data: Alarm & { deliveryLagMs?: number }) => void
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Triggered with the timings of every fire once its sound started and its
+   * notification was posted. Only sent with `latencyEvents` enabled in
+   * `configure` and while the app is running.
+   *
+   * ```ts
+   * capacitorExactAlarmPlugin.addListener("alarmLatency", (latency) => {
+   *   console.log("Audible after", latency.audibleMs);
+   * });
+   * ```
+   */
+  addListener(
+    eventName: "alarmLatency",
+    listenerFunc: (latency: alarmLatency) => void
   ): Promise<PluginListenerHandle>;
 
   /**
-   * Triggered when the user taps the alarm notification.
+   * Triggered when the user taps the alarm notification. Taps made while the
+   * app was not running are delivered once it starts.
    *
    * ```ts
    * capacitorExactAlarmPlugin.addListener("alarmNotificationTapped", (alarm) => {
@@ -250,6 +699,40 @@ export interface capacitorExactAlarmPlugin {
     listenerFunc: (data: Alarm) => void
   ): Promise<PluginListenerHandle>;
 
+  /**
+   * Triggered when a ringing alarm is stopped, from its notification or
+   * through `stopAlarm`.
+   *
+   * Like `alarmTriggered` and `alarmNotificationTapped` it is journaled natively:
+   * events raised while the app was closed or still loading are delivered in
+   * order once the plugin loads, each alarm occurrence at most once.
+   *
+   * ```ts
+   * capacitorExactAlarmPlugin.addListener("alarmDismissed", (alarm) => {
+   *   console.log("Alarm dismissed:", alarm);
+   * });
+   * ```
+   */
+  addListener(
+    eventName: "alarmDismissed",
+    listenerFunc: (data: Alarm) => void
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Triggered after every change to the stored alarms, including the ones the
+   * plugin makes natively when an alarm fires and is rescheduled or removed.
+   *
+   * ```ts
+   * capacitorExactAlarmPlugin.addListener("alarmsChanged", (changes) => {
+   *   console.log("Removed:", changes.removed);
+   * });
+   * ```
+   */
+  addListener(
+    eventName: "alarmsChanged",
+    listenerFunc: (changes: alarmChanges) => void
+  ): Promise<PluginListenerHandle>;
+
   /**
    * Remove all registered listeners.
    *
@@ -8,10 +8,29 @@ export class capacitorExactAlarmWeb extends WebPlugin implements capacitorExactA
     console.warn('Alarm is only available on Android.');
     return Promise.reject('Not available on web.');
   }
+  async setAlarms(): Promise<any> {
+    console.warn('Alarm is only available on Android.');
+    return Promise.reject('Not available on web.');
+  }
   async cancelAlarm(): Promise<void> {
     console.warn('Alarm only supported on native Android');
   }
 
+  async updateAlarm(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
+  async previewOccurrences(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
+  async snoozeAlarm(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
   async stopAlarm(): Promise<void> {
     console.warn('Alarm only supported on native Android');
   }
@@ -20,6 +39,16 @@ export class capacitorExactAlarmWeb extends WebPlugin implements capacitorExactA
     console.warn('Alarm only supported on native Android');
   }
 
+  async configure(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
+  async getAlarmMetrics(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
   async requestExactAlarmPermission(): Promise<void> {
     console.warn('Alarm only supported on native Android');
   }
@@ -42,6 +71,16 @@ export class capacitorExactAlarmWeb extends WebPlugin implements capacitorExactA
     return Promise.reject('Not available on web.');
   }
 
+  async queryAlarms(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
+  async getChangesSince(): Promise<any> {
+    console.warn('Alarm only supported on native Android');
+    return Promise.reject('Not available on web.');
+  }
+
   pickAlarmSound(): Promise<any> {
     console.warn('Alarm is only available on Android.');
     return Promise.reject('Not available on web.');